@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * <code>AlbumArt</code> is a handle to the image bytes of an APIC frame kept by
+ * an <code>AlbumArtStore</code>. Frames containing identical images share the
+ * same instance, which is identified by the hash of its content.
+ * <br>
+ * The image bytes are read-only. They stay in the store as long as any frame
+ * or other holder references the handle.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ * @see ImageFrame#getArt()
+ */
+public final class AlbumArt {
+
+    /**
+     * Hexadecimal SHA-256 hash of the image.
+     */
+    private final String hash;
+
+    /**
+     * Shared read-only image bytes, from position 0 to the limit.
+     */
+    private final ByteBuffer data;
+
+
+    AlbumArt(String hash, ByteBuffer data) {
+        this.hash = hash;
+        this.data = data.asReadOnlyBuffer();
+    }
+
+
+    /**
+     * Gets, the content hash of the image.
+     * @return Hexadecimal SHA-256 hash of the image bytes.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+
+    /**
+     * Gets, the size of the image.
+     * @return Number of image bytes.
+     */
+    public int getLength() {
+        return data.limit();
+    }
+
+
+    /**
+     * Gets, a read-only view of the image bytes without copying them.
+     * @return Buffer containing the image from position 0 to its limit.
+     */
+    public ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+
+    /**
+     * Gets, a copy of the image bytes.
+     * @return Array of bytes containing the image.
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[data.limit()];
+        data.duplicate().get(bytes);
+
+        return bytes;
+    }
+
+
+    /**
+     * Opens a stream reading the image bytes without copying them.
+     * @return Input stream of the image.
+     */
+    public InputStream openStream() {
+        final ByteBuffer buffer = data.duplicate();
+
+        return new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if(len == 0)
+                    return 0;
+                if(!buffer.hasRemaining())
+                    return -1;
+
+                len = Math.min(len, buffer.remaining());
+                buffer.get(b, off, len);
+
+                return len;
+            }
+
+            @Override
+            public long skip(long n) {
+                int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+                buffer.position(buffer.position() + skipped);
+
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return buffer.remaining();
+            }
+        };
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        return (obj instanceof AlbumArt) && hash.equals(((AlbumArt) obj).hash);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return hash.hashCode();
+    }
+
+
+    @Override
+    public String toString() {
+        return "AlbumArt[" + hash + ", " + getLength() + " bytes]";
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+/**
+ * <code>AlbumArtStore</code> keeps a single copy of every distinct album art
+ * image, identified by the SHA-256 hash of its bytes. Tracks of an album usually
+ * embed the same cover, so their <code>ImageFrame</code>s end up sharing one
+ * <code>AlbumArt</code> instead of holding a copy each.
+ * <br>
+ * Images are held on the heap or, for stores created with <code>direct</code>
+ * set, in direct buffers outside the heap. An image is dropped from the store
+ * once no handle to it is referenced any more. All methods are thread safe.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ * @see ImageFrame#setArtStore(AlbumArtStore)
+ */
+public final class AlbumArtStore {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final class DefaultHolder {
+        static final AlbumArtStore INSTANCE = new AlbumArtStore(false);
+    }
+
+    /**
+     * Weak reference to a stored image, remembering its hash so that the entry
+     * can be removed once the image has been collected.
+     */
+    private static final class ArtReference extends WeakReference<AlbumArt> {
+        final String hash;
+        final int length;
+
+        ArtReference(AlbumArt art, ReferenceQueue<AlbumArt> queue) {
+            super(art, queue);
+
+            this.hash   = art.getHash();
+            this.length = art.getLength();
+        }
+    }
+
+
+    private final boolean direct;
+
+    private final HashMap<String, ArtReference> images = new HashMap<>();
+
+    private final ReferenceQueue<AlbumArt> collected = new ReferenceQueue<>();
+
+    private long retainedBytes;
+
+
+    /**
+     * Creates a new store.
+     * @param direct True to keep images in direct buffers outside the heap.
+     */
+    public AlbumArtStore(boolean direct) {
+        this.direct = direct;
+    }
+
+
+    /**
+     * Gets, the shared heap store used by <code>ImageFrame</code> unless
+     * another store has been set.
+     * @return Default store.
+     */
+    public static AlbumArtStore getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+
+    /**
+     * Gets, the shared handle of an image, storing a copy of the image if it is
+     * not stored yet.
+     * @param image Buffer containing the image bytes from its position to its
+     * limit. It is not modified.
+     * @return Handle to the stored image.
+     */
+    public AlbumArt intern(ByteBuffer image) {
+        String hash = hash(image);
+
+        synchronized (this) {
+            expunge();
+
+            ArtReference reference = images.get(hash);
+            AlbumArt art = (reference == null) ? null : reference.get();
+
+            if(art != null)
+                return art;
+
+            // Image has been collected but its entry not expunged yet
+            if(reference != null)
+                retainedBytes -= reference.length;
+
+            ByteBuffer copy = direct ? ByteBuffer.allocateDirect(image.remaining())
+                                     : ByteBuffer.allocate(image.remaining());
+            copy.put(image.duplicate()).flip();
+
+            art = new AlbumArt(hash, copy);
+
+            images.put(hash, new ArtReference(art, collected));
+            retainedBytes += art.getLength();
+
+            return art;
+        }
+    }
+
+
+    /**
+     * Gets, the stored image with the given hash.
+     * @param hash Hexadecimal SHA-256 hash of the image.
+     * @return Handle to the image or null if it is not stored.
+     */
+    public synchronized AlbumArt get(String hash) {
+        expunge();
+
+        ArtReference reference = images.get(hash);
+
+        return (reference == null) ? null : reference.get();
+    }
+
+
+    /**
+     * Gets, the number of distinct images in the store.
+     * @return Number of stored images.
+     */
+    public synchronized int size() {
+        expunge();
+
+        return images.size();
+    }
+
+
+    /**
+     * Gets, the number of image bytes held by the store.
+     * @return Total size of all stored images.
+     */
+    public synchronized long getRetainedBytes() {
+        expunge();
+
+        return retainedBytes;
+    }
+
+
+    /**
+     * Removes the entries of images which are no longer referenced.
+     */
+    private void expunge() {
+        ArtReference reference;
+
+        while((reference = (ArtReference) collected.poll()) != null) {
+            // Entry may have been replaced by a new copy of the same image
+            if(images.get(reference.hash) == reference) {
+                images.remove(reference.hash);
+                retainedBytes -= reference.length;
+            }
+        }
+    }
+
+
+    /**
+     * Computes the hexadecimal SHA-256 hash of the image.
+     */
+    static String hash(ByteBuffer image) {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+
+        digest.update(image.duplicate());
+
+        byte[] bytes = digest.digest();
+        char[] hex   = new char[bytes.length * 2];
+
+        for(int i = 0; i < bytes.length; i++) {
+            hex[i * 2]      = HEX[(bytes[i] >> 4) & 0x0f];
+            hex[i * 2 + 1]  = HEX[bytes[i] & 0x0f];
+        }
+
+        return new String(hex);
+    }
+}
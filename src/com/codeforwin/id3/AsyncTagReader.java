@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import static com.codeforwin.id3.ID3.HEADER_SIZE;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <code>AsyncTagReader</code> parses ID3 tags with <code>AsynchronousFileChannel</code>
+ * without blocking the calling thread. The 10 byte header is read first and,
+ * if the file contains a valid tag, the whole tag is read with a second read.
+ * No thread is held while a read is outstanding.
+ * <br>
+ * Any number of files can be requested at once. Files beyond the concurrency
+ * limit wait in a queue and are opened as earlier reads complete, so the number
+ * of open channels never exceeds the limit.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ */
+public final class AsyncTagReader {
+
+    /**
+     * Default maximum number of files read at a time.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_READS = 1024;
+
+    private static final Set<OpenOption> READ_OPTIONS = Collections.singleton(StandardOpenOption.READ);
+
+    private final int maxConcurrentReads;
+
+    /**
+     * Executor of the channels or null for the default thread pool.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Number of files being read.
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Reads waiting for a free slot.
+     */
+    private final ConcurrentLinkedQueue<Read> waiting = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of drain requests not yet handled by the draining thread.
+     */
+    private final AtomicInteger drainRequests = new AtomicInteger();
+
+
+    private static final class DefaultHolder {
+        static final AsyncTagReader INSTANCE = new AsyncTagReader(DEFAULT_MAX_CONCURRENT_READS);
+    }
+
+
+    /**
+     * Creates a new reader using the default thread pool of asynchronous channels.
+     * @param maxConcurrentReads Maximum number of files read at a time, at least 1.
+     */
+    public AsyncTagReader(int maxConcurrentReads) {
+        this(maxConcurrentReads, null);
+    }
+
+
+    /**
+     * Creates a new reader whose channels complete their reads on the given
+     * executor.
+     * @param maxConcurrentReads Maximum number of files read at a time, at least 1.
+     * @param executor Executor handling the completed reads, null for the default
+     * thread pool.
+     */
+    public AsyncTagReader(int maxConcurrentReads, ExecutorService executor) {
+        if(maxConcurrentReads < 1)
+            throw new IllegalArgumentException("At least one read must be allowed.");
+
+        this.maxConcurrentReads = maxConcurrentReads;
+        this.executor           = executor;
+    }
+
+
+    /**
+     * Gets, the shared reader used by <code>ID3Metadata.parseAsync()</code>.
+     * @return Reader allowing <code>DEFAULT_MAX_CONCURRENT_READS</code> reads.
+     */
+    public static AsyncTagReader getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+
+    /**
+     * Parses the media file for a valid ID3 tag. The returned metadata holds
+     * the whole tag in memory, so its frames are available without further I/O.
+     *
+     * @param path File which is to be parsed for valid ID3 meta-data.
+     * @return Future completed with an instance of <code>ID3Metadata</code> if
+     * the file contains valid ID3 tag, with null if it does not, or
+     * exceptionally if the file cannot be read.
+     */
+    public CompletableFuture<ID3Metadata> parseAsync(Path path) {
+        Read read = new Read(path);
+
+        waiting.add(read);
+        drain();
+
+        return read.future;
+    }
+
+
+    /**
+     * Gets, the maximum number of files read at a time.
+     * @return Concurrency limit.
+     */
+    public int getMaxConcurrentReads() {
+        return maxConcurrentReads;
+    }
+
+
+    /**
+     * Gets, the number of files being read at the moment.
+     * @return Number of open channels.
+     */
+    public int getActiveReads() {
+        return active.get();
+    }
+
+
+    /**
+     * Starts waiting reads while there are free slots. Only one thread drains
+     * at a time: a read failing synchronously in <code>start()</code> calls back
+     * into this method, and such re-entrant or concurrent requests are handled
+     * by the loop of the thread already draining instead of recursing.
+     */
+    private void drain() {
+        if(drainRequests.getAndIncrement() != 0)
+            return;
+
+        do {
+            startWaiting();
+        } while(drainRequests.decrementAndGet() != 0);
+    }
+
+
+    private void startWaiting() {
+        while(!waiting.isEmpty()) {
+            int current = active.get();
+
+            if(current >= maxConcurrentReads)
+                return;
+
+            if(!active.compareAndSet(current, current + 1))
+                continue;
+
+            Read read = waiting.poll();
+
+            if(read == null) {
+                active.decrementAndGet();
+                continue;
+            }
+
+            read.start();
+        }
+    }
+
+
+    /**
+     * Frees the slot of a finished read and starts the next one.
+     */
+    private void release() {
+        active.decrementAndGet();
+        drain();
+    }
+
+
+    /**
+     * State of a single file read, called back by the channel as each read
+     * completes.
+     */
+    private final class Read implements CompletionHandler<Integer, Void> {
+        private final Path path;
+        private final CompletableFuture<ID3Metadata> future = new CompletableFuture<>();
+
+        private AsynchronousFileChannel channel;
+        private ByteBuffer buffer;
+        private long position;
+        private ID3Metadata id3;
+
+        Read(Path path) {
+            this.path = path;
+        }
+
+        void start() {
+            try {
+                channel = AsynchronousFileChannel.open(path, READ_OPTIONS, executor);
+            } catch (IOException | RuntimeException ex) {
+                failed(ex, null);
+                return;
+            }
+
+            // Read the first 10 header info from the media file
+            buffer      = ByteBuffer.allocate(HEADER_SIZE);
+            position    = 0;
+            read();
+        }
+
+        private void read() {
+            try {
+                channel.read(buffer, position + buffer.position(), null, this);
+            } catch (RuntimeException ex) {
+                failed(ex, null);
+            }
+        }
+
+        @Override
+        public void completed(Integer count, Void attachment) {
+            // Read again until the buffer is full or end of file is reached
+            if(count >= 0 && buffer.hasRemaining()) {
+                read();
+                return;
+            }
+
+            try {
+                if(id3 == null)
+                    readHeader();
+                else
+                    readTag();
+            } catch (IOException | RuntimeException ex) {
+                failed(ex, null);
+            }
+        }
+
+        private void readHeader() throws IOException {
+            if(buffer.hasRemaining() || !ID3Probe.isValidHeader(buffer)) {
+                finish(null);
+                return;
+            }
+
+            id3 = ID3Metadata.fromHeader(path.toFile(), buffer);
+
+            // Truncated media, read only what exists
+            long available  = Math.max(0, channel.size() - HEADER_SIZE);
+            int length      = (int) Math.min(id3.getSize(), available);
+
+            if(length <= 0) {
+                finish(id3);
+                return;
+            }
+
+            buffer      = ByteBuffer.allocate(length);
+            position    = HEADER_SIZE;
+            read();
+        }
+
+        private void readTag() {
+            buffer.flip();
+            id3.setTag(buffer);
+
+            finish(id3);
+        }
+
+        @Override
+        public void failed(Throwable ex, Void attachment) {
+            IOException exception;
+
+            if(ex instanceof NoSuchFileException) {
+                exception = new FileNotFoundException("File not found");
+            } else {
+                exception = new IOException("Unable to read media.");
+            }
+
+            exception.initCause(ex);
+
+            close();
+            release();
+            future.completeExceptionally(exception);
+        }
+
+        private void finish(ID3Metadata result) {
+            close();
+            release();
+            future.complete(result);
+        }
+
+        private void close() {
+            if(channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    // Nothing was written, the tag has been read already
+                }
+            }
+        }
+    }
+}
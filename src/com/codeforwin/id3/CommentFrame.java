@@ -19,6 +19,9 @@ package com.codeforwin.id3;
 
 import static com.codeforwin.id3.ID3.*;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * Comment frame structure
  * -----------------------
@@ -48,6 +51,11 @@ public class CommentFrame extends Frame {
 	 */
 	private String comment;
 	
+	/**
+	 * True once the frame data has been decoded.
+	 */
+	private boolean unpacked;
+	
 	
 
 	/**
@@ -57,54 +65,91 @@ public class CommentFrame extends Frame {
 	 */
 	public CommentFrame(String frameID, int size, byte[] data) {
 		super(frameID, size, data);
-
-		unpack();
+	}
+	
+	
+	/**
+	 * @param frameID
+	 * @param payload
+	 */
+	public CommentFrame(String frameID, ByteBuffer payload) {
+		super(frameID, payload);
+	}
+	
+	
+	/**
+	 * @param frameCode
+	 * @param payload
+	 */
+	public CommentFrame(int frameCode, ByteBuffer payload) {
+		super(frameCode, payload);
 	}
 
 
 	/**
-	 * Unpacks the comment frame and fetches the data.
+	 * Unpacks the comment frame and fetches the data, if not done already.
 	 */
 	private void unpack() {
-		language = getString(data, 1, 3, encoding);
+		if(unpacked)
+			return;
+		unpacked = true;
+		
+		ByteBuffer data = getPayload();
+		
+		language = getString(data, 1, 3, getCharset());
 		
 		int terminatorIndex = 4;
-		while(terminatorIndex < size && data[terminatorIndex++] != 0);
+		while(terminatorIndex < size && data.get(terminatorIndex++) != 0);
 		terminatorIndex--;
 		
-		description = getString(data, 4, terminatorIndex - 4, encoding);
-		
-		int terminatorLen = (description.isEmpty()) ? 0 : description.length();
+		description = getString(data, 4, terminatorIndex - 4, getCharset());
 		
-		comment	 	= getString(data, terminatorIndex, data.length - 4 - terminatorLen, encoding);
+		comment	 	= getString(data, terminatorIndex, size - terminatorIndex, getCharset());
 	}
 	
 	
 	@Override
 	public byte[] pack() {
-		byte[] lang = getBytes(language, ENCODING_ISO_8859_1);
-		byte[] desc = getBytes(description, encoding);
-		byte[] comm = getBytes(comment, encoding);
+		// Unmodified frames are packed from their original data
+		if(!isModified() && getStoredPayload() != null)
+			return super.pack();
 		
-		byte encodingByte = getEncodingByte();
+		byte[] frameData = new byte[serializedSize()];
+		packInto(ByteBuffer.wrap(frameData));
 		
-		int newLength = lang.length + desc.length + comm.length + 1;
+		setData(Arrays.copyOfRange(frameData, HEADER_SIZE, frameData.length));
 		
-		data = new byte[newLength];
+		return frameData;
+	}
+	
+	
+	@Override
+	public int serializedSize() {
+		if(!isModified() && getStoredPayload() != null)
+			return super.serializedSize();
 		
-		int index = 0;
-		data[index++] = encodingByte;
-		System.arraycopy(lang, 0, data, index, lang.length);
-		index += lang.length;
+		unpack();
 		
-		System.arraycopy(desc, 0, data, index, desc.length);
-		index += desc.length;
+		return HEADER_SIZE + 1 + getByteCount(language, ENCODING_ISO_8859_1) 
+				+ getByteCount(description, encoding) + getByteCount(comment, encoding);
+	}
+	
+	
+	@Override
+	public void packInto(ByteBuffer out) {
+		if(!isModified() && getStoredPayload() != null) {
+			super.packInto(out);
+			return;
+		}
 		
-		System.arraycopy(comm, 0, data, index, comm.length);
+		unpack();
 		
-		size = newLength;
+		packHeader(out, serializedSize() - HEADER_SIZE);
 		
-		return super.pack();
+		out.put(getEncodingByte());
+		putString(out, language, ENCODING_ISO_8859_1);
+		putString(out, description, encoding);
+		putString(out, comment, encoding);
 	}
 	
 
@@ -112,6 +157,7 @@ public class CommentFrame extends Frame {
 	 * @return the language
 	 */
 	public String getLanguage() {
+		unpack();
 		return language;
 	}
 
@@ -121,7 +167,9 @@ public class CommentFrame extends Frame {
 	 * @param language the language to set
 	 */
 	public void setLanguage(String language) {
+		unpack();
 		this.language = language;
+		setModified();
 	}
 
 
@@ -130,6 +178,7 @@ public class CommentFrame extends Frame {
 	 * @return the description
 	 */
 	public String getDescription() {
+		unpack();
 		return description;
 	}
 
@@ -139,7 +188,9 @@ public class CommentFrame extends Frame {
 	 * @param description the description to set
 	 */
 	public void setDescription(String description) {
+		unpack();
 		this.description = description;
+		setModified();
 	}
 
 
@@ -148,6 +199,7 @@ public class CommentFrame extends Frame {
 	 * @return the comment
 	 */
 	public String getComment() {
+		unpack();
 		return comment;
 	}
 
@@ -157,7 +209,9 @@ public class CommentFrame extends Frame {
 	 * @param comment the comment to set
 	 */
 	public void setComment(String comment) {
+		unpack();
 		this.comment = comment;
+		setModified();
 	}
 
 }
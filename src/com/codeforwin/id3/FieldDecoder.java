@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Optional;
+
+/**
+ * <code>FieldDecoder</code> converts the text of numeric, genre and time frames
+ * to typed values. Real world tags are often dirty: values are padded with null
+ * characters, track numbers carry the number of tracks and genres refer to the
+ * ID3v1 genre list. None of the methods throws on malformed text, they return
+ * the default value or an empty optional instead, and numbers are parsed
+ * without allocating.
+ * <br>
+ * Leading null characters, white space and byte order marks are skipped.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ * @see MediaMetadata
+ */
+public final class FieldDecoder {
+
+    private static final String GENRE_REMIX = "Remix";
+    private static final String GENRE_COVER = "Cover";
+
+
+    private FieldDecoder() { }
+
+
+    /**
+     * Parses the leading number of the text, e.g. 5 of "5", "\05" or "5/12".
+     * @param text Text of a TRCK, TPOS, TLEN, TYER or similar frame, may be null.
+     * @param defaultValue Value returned if the text does not start with a number.
+     * @return Number or <code>defaultValue</code>.
+     */
+    public static int parseNumber(CharSequence text, int defaultValue) {
+        if(text == null)
+            return defaultValue;
+
+        return parseNumber(text, skip(text, 0), defaultValue);
+    }
+
+
+    /**
+     * Parses the total of a "n/total" text, e.g. 12 of "5/12".
+     * @param text Text of a TRCK or TPOS frame, may be null.
+     * @param defaultValue Value returned if the text has no total.
+     * @return Total or <code>defaultValue</code>.
+     */
+    public static int parseTotal(CharSequence text, int defaultValue) {
+        if(text == null)
+            return defaultValue;
+
+        for(int i = 0; i < text.length(); i++) {
+            if(text.charAt(i) == '/')
+                return parseNumber(text, skip(text, i + 1), defaultValue);
+        }
+
+        return defaultValue;
+    }
+
+
+    /**
+     * Parses the year of a TYER frame or of an ID3v2.4 timestamp, e.g. 2001 of
+     * "2001" or "2001-05-17T20:00".
+     * @param text Text of a TYER, TORY, TDOR, TDRC or TDRL frame, may be null.
+     * @param defaultValue Value returned if the text does not start with a year.
+     * @return Year or <code>defaultValue</code>.
+     */
+    public static int parseYear(CharSequence text, int defaultValue) {
+        if(text == null)
+            return defaultValue;
+
+        int year = digits(text, skip(text, 0), 4);
+
+        return (year < 0) ? defaultValue : year;
+    }
+
+
+    /**
+     * Parses an ID3v2.4 timestamp of the form yyyy[-MM[-dd[THH[:mm[:ss]]]]].
+     * Fields which are left out are set to their smallest value.
+     * @param text Text of a TDRC, TDRL, TDOR or similar frame, may be null.
+     * @return Date and time or an empty optional if the text is not a valid
+     * timestamp.
+     */
+    public static Optional<LocalDateTime> parseTimestamp(CharSequence text) {
+        if(text == null)
+            return Optional.empty();
+
+        int index   = skip(text, 0);
+        int end     = end(text, index);
+
+        int[] fields        = { -1, 1, 1, 0, 0, 0 };
+        final char[] prefix = { 0, '-', '-', 'T', ':', ':' };
+
+        for(int field = 0; field < fields.length && index < end; field++) {
+            if(field > 0) {
+                char separator = text.charAt(index);
+
+                // Time is often separated by a space instead of 'T'
+                if(separator != prefix[field] && !(field == 3 && separator == ' '))
+                    return Optional.empty();
+
+                index++;
+            }
+
+            int count = (field == 0) ? 4 : 2;
+
+            fields[field] = digits(text, index, count);
+            if(fields[field] < 0)
+                return Optional.empty();
+
+            index += count;
+        }
+
+        // Trailing characters or no year at all
+        if(index < end || fields[0] < 0)
+            return Optional.empty();
+
+        int month = fields[1];
+        if(month < 1 || month > 12)
+            return Optional.empty();
+
+        int day = fields[2];
+        if(day < 1 || day > YearMonth.of(fields[0], month).lengthOfMonth())
+            return Optional.empty();
+
+        if(fields[3] > 23 || fields[4] > 59 || fields[5] > 59)
+            return Optional.empty();
+
+        return Optional.of(LocalDateTime.of(fields[0], month, day, fields[3], fields[4], fields[5]));
+    }
+
+
+    /**
+     * Parses the content type of a TCON frame. References to the ID3v1 genre
+     * list are resolved to the genre name.
+     * <ul>
+     * <li>"(17)" and "17" - Rock</li>
+     * <li>"(17)Hard Rock" - Hard Rock, the refinement of the genre</li>
+     * <li>"(RX)" and "RX" - Remix</li>
+     * <li>"(CR)" and "CR" - Cover</li>
+     * <li>"((Rock)" - (Rock), an escaped opening parenthesis</li>
+     * </ul>
+     * Only the first value of an ID3v2.4 null separated list is parsed.
+     *
+     * @param text Text of a TCON frame, may be null.
+     * @return Name of the genre or null if the text is empty.
+     */
+    public static String parseGenre(CharSequence text) {
+        if(text == null)
+            return null;
+
+        int index   = skip(text, 0);
+        int end     = end(text, index);
+
+        if(index == end)
+            return null;
+
+        if(text.charAt(index) != '(') {
+            String genre = resolveGenre(text, index, end);
+
+            return (genre != null) ? genre : text.subSequence(index, end).toString();
+        }
+
+        // Escaped parenthesis, the genre is plain text
+        if(index + 1 < end && text.charAt(index + 1) == '(')
+            return text.subSequence(index + 1, end).toString();
+
+        int close = index + 1;
+        while(close < end && text.charAt(close) != ')')
+            close++;
+
+        if(close == end)
+            return text.subSequence(index, end).toString();
+
+        // Refinement following the reference, unless it is another reference
+        int refinement = close + 1;
+        if(refinement < end && (text.charAt(refinement) != '('
+                || (refinement + 1 < end && text.charAt(refinement + 1) == '(')))
+            return parseGenre(text.subSequence(refinement, end));
+
+        String genre = resolveGenre(text, index + 1, close);
+
+        return (genre != null) ? genre : text.subSequence(index, end).toString();
+    }
+
+
+    /**
+     * Gets, the genre a reference refers to.
+     * @return Genre name or null if the text is not a genre reference.
+     */
+    private static String resolveGenre(CharSequence text, int from, int to) {
+        if(to - from == 2) {
+            if(text.charAt(from) == 'R' && text.charAt(from + 1) == 'X')
+                return GENRE_REMIX;
+
+            if(text.charAt(from) == 'C' && text.charAt(from + 1) == 'R')
+                return GENRE_COVER;
+        }
+
+        if(to - from < 1 || to - from > 3)
+            return null;
+
+        int index = digits(text, from, to - from);
+
+        return (index >= 0 && index < ID3.GENRES.length) ? ID3.GENRES[index] : null;
+    }
+
+
+    /**
+     * Parses the number starting at the given index, up to the first character
+     * which is not a digit.
+     */
+    private static int parseNumber(CharSequence text, int index, int defaultValue) {
+        int length  = text.length();
+        int value   = 0;
+        int start   = index;
+
+        for(; index < length; index++) {
+            int digit = text.charAt(index) - '0';
+
+            if(digit < 0 || digit > 9)
+                break;
+
+            // Overflow
+            if(value > (Integer.MAX_VALUE - digit) / 10)
+                return defaultValue;
+
+            value = value * 10 + digit;
+        }
+
+        return (index == start) ? defaultValue : value;
+    }
+
+
+    /**
+     * Parses exactly <code>count</code> digits starting at the given index.
+     * @return Number or -1 if the characters are not all digits.
+     */
+    private static int digits(CharSequence text, int index, int count) {
+        if(index + count > text.length())
+            return -1;
+
+        int value = 0;
+
+        for(int i = index; i < index + count; i++) {
+            int digit = text.charAt(i) - '0';
+
+            if(digit < 0 || digit > 9)
+                return -1;
+
+            value = value * 10 + digit;
+        }
+
+        return value;
+    }
+
+
+    /**
+     * Gets, the index of the first character which is not padding.
+     */
+    private static int skip(CharSequence text, int index) {
+        int length = text.length();
+
+        while(index < length && isPadding(text.charAt(index)))
+            index++;
+
+        return index;
+    }
+
+
+    /**
+     * Gets, the end of the value starting at the given index: the next null
+     * character or the end of the text, excluding trailing white space.
+     */
+    private static int end(CharSequence text, int index) {
+        int end = index;
+
+        while(end < text.length() && text.charAt(end) != 0)
+            end++;
+
+        while(end > index && Character.isWhitespace(text.charAt(end - 1)))
+            end--;
+
+        return end;
+    }
+
+
+    private static boolean isPadding(char c) {
+        return c == 0 || c == '\uFEFF' || Character.isWhitespace(c);
+    }
+}
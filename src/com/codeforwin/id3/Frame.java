@@ -16,6 +16,8 @@
  */
 package com.codeforwin.id3;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import static com.codeforwin.id3.ID3.*;
 
@@ -42,21 +44,40 @@ public class Frame {
      */
     protected final String frameID;
     
+    /**
+     * Unique identifier of the frame packed into four bytes, as stored in the 
+     * frame header.
+     */
+    private final int frameCode;
+    
     /**
      * Current textual data encoding
      */
     protected String encoding;
     
+    /**
+     * Charset of the current encoding, resolved once so that text is decoded
+     * without looking the charset up by name.
+     */
+    private Charset charset;
+    
     /**
      * Size of the data.
      */
     protected int size;
     
     /**
-     * The real data associated with the frame.
+     * The real data associated with the frame. It is null as long as the frame
+     * is backed by a slice of the loaded tag, see <code>payload</code>.
      */
     protected byte[] data;
     
+    /**
+     * Read-only slice of the loaded tag containing the frame data. Frame data 
+     * is copied out of the slice only when the frame is mutated.
+     */
+    private ByteBuffer payload;
+    
     /**
      * The current identifier is a valid standard identifier or not.
      */
@@ -67,6 +88,23 @@ public class Frame {
      */
     private int flag1, flag2;
     
+    /**
+     * True if the frame has been changed since it was read from or written to 
+     * the media file.
+     */
+    private boolean modified;
+    
+    /**
+     * Position of the frame data in the media file, -1 if the frame is not 
+     * stored in the media file.
+     */
+    private long sourcePosition = -1;
+    
+    /**
+     * Version of the tag the frame is stored in, null if it is unknown.
+     */
+    private TagVersion sourceVersion;
+    
     
     /**
      * Creates a new instance of <code>Frame</code> class with a valid unique
@@ -79,23 +117,80 @@ public class Frame {
     public Frame(String frameID, int size, byte[] data) {
         this.frameID = frameID;
         
+        this.frameCode = frameCode(frameID);
+        
         this.size = size;
         
-        standardIdentifier = isValidIdentifier(frameID);
+        standardIdentifier = isStandardFrame(frameCode);
         
-        /**
-         * Sets the current encoding technique used for textual data if any
-         */
-        if(data.length >= 2 	&& (data[1] == (byte)0xff && data[2] == (byte)0xfe))
-        	encoding = ENCODING_UTF16;
-        else if(data.length >=2 && (data[1] == (byte)0xfe && data[2] == (byte)0xff))
-        	encoding = ENCODING_UTF16BE;
-        else if(data.length >=3 && (data[1] == (byte)0xef && data[2] == (byte)0xbb && data[3] == (byte)0xbf))
-        	encoding = ENCODING_UTF8;
-        else
-        	encoding = ENCODING_ISO_8859_1;
+        setEncodingName(detectEncoding(ByteBuffer.wrap(data)));
         
         this.data = Arrays.copyOfRange(data, 0, data.length);
+        
+        this.modified = true;
+    }
+    
+    
+    /**
+     * Creates a new instance of <code>Frame</code> class whose data is backed
+     * by the given buffer. The buffer is not copied, it is usually a read-only
+     * slice of the loaded ID3 tag. 
+     * 
+     * @param frameID String representing unique frame identifier.
+     * @param payload Buffer containing the real data of the frame from its 
+     * position to its limit.
+     */
+    public Frame(String frameID, ByteBuffer payload) {
+        this(frameCode(frameID), frameID, payload);
+    }
+    
+    
+    /**
+     * Creates a new instance of <code>Frame</code> class whose data is backed
+     * by the given buffer. Frames read from an ID3 tag are created this way,
+     * without allocating a string for standard frame identifiers.
+     * 
+     * @param frameCode Packed four byte frame identifier.
+     * @param payload Buffer containing the real data of the frame from its 
+     * position to its limit.
+     * @see FrameCodec
+     */
+    public Frame(int frameCode, ByteBuffer payload) {
+        this(frameCode, frameID(frameCode), payload);
+    }
+    
+    
+    private Frame(int frameCode, String frameID, ByteBuffer payload) {
+        this.frameID = frameID;
+        
+        this.frameCode = frameCode;
+        
+        this.payload = payload.slice().asReadOnlyBuffer();
+        
+        this.size = this.payload.remaining();
+        
+        standardIdentifier = isStandardFrame(frameCode);
+        
+        setEncodingName(detectEncoding(this.payload));
+    }
+    
+    
+    /**
+     * Gets, the current encoding technique used for textual data if any.
+     * @param data Frame data, starting at position 0.
+     * @return Encoding name.
+     */
+    private static String detectEncoding(ByteBuffer data) {
+        int length = data.limit();
+        
+        if(length >= 3 		&& (data.get(1) == (byte)0xff && data.get(2) == (byte)0xfe))
+        	return ENCODING_UTF16;
+        else if(length >= 3 && (data.get(1) == (byte)0xfe && data.get(2) == (byte)0xff))
+        	return ENCODING_UTF16BE;
+        else if(length >= 4 && (data.get(1) == (byte)0xef && data.get(2) == (byte)0xbb && data.get(3) == (byte)0xbf))
+        	return ENCODING_UTF8;
+        else
+        	return ENCODING_ISO_8859_1;
     }
 
     
@@ -108,13 +203,7 @@ public class Frame {
      * frame identifier otherwise false.
      */
     public static boolean isValidIdentifier(String identifier) {
-    	for (String id : STANDARD_FRAMES) {
-            if (id.equals(identifier)) {
-                return true;
-            }
-        }
-        
-        return false;
+        return isStandardFrame(frameCode(identifier));
     }
     
     
@@ -153,32 +242,67 @@ public class Frame {
 	 */
 	public byte[] pack() {
         byte frameData[] = new byte[size + HEADER_SIZE];
+        ByteBuffer out = ByteBuffer.wrap(frameData);
         
-        String frameID  = this.frameID;
-        int frameSize   = this.size;
-        int flag1       = this.flag1;
-        int flag2       = this.flag2;
-        
-        // Copy frame ID to the binary frame data
-        System.arraycopy(frameID.getBytes(), 0, frameData, 0, 4);
-        
-        // Copy size to binary frame data
-        byte[] sizeArr 	= getBytes(frameSize);
-        System.arraycopy(sizeArr, 0, frameData, 4, Integer.BYTES);
-        
-        // Copy first flag to binary frame data
-        frameData[8] = (byte) flag1;
-        
-        // Copy the second flag to binary frame data
-        frameData[9] = (byte) flag2;
-        
-        // Copy frame data
-        System.arraycopy(data, 0, frameData, HEADER_SIZE, size);
+        packHeader(out, size);
+        putData(out);
         
         return frameData;
     }
 	
 	
+	/**
+	 * Gets, the number of bytes written by <code>packInto()</code>, i.e. the 
+	 * size of the frame in the tag including its header.
+	 * 
+	 * @return Size of the binary frame.
+	 */
+	public int serializedSize() {
+		return HEADER_SIZE + size;
+	}
+	
+	
+	/**
+	 * Converts the frame information to binary format at the position of the 
+	 * buffer, without allocating intermediate arrays. Exactly 
+	 * <code>serializedSize()</code> bytes are written and the position of the 
+	 * buffer is advanced past them.
+	 * 
+	 * @param out Buffer receiving the frame header and data.
+	 * @throws java.nio.BufferOverflowException If the buffer has not enough room
+	 * left for the frame.
+	 */
+	public void packInto(ByteBuffer out) {
+        packHeader(out, size);
+        putData(out);
+	}
+	
+	
+	/**
+	 * Copies the frame data as it is to the buffer.
+	 */
+	private void putData(ByteBuffer out) {
+        if(data != null)
+            out.put(data, 0, size);
+        else
+            out.put(payload.duplicate());
+	}
+	
+	
+	/**
+	 * Writes the 10 byte frame header at the position of the buffer.
+	 * @param out Buffer receiving the header.
+	 * @param frameSize Size of the frame data excluding the header.
+	 */
+	void packHeader(ByteBuffer out, int frameSize) {
+        // Frame ID, size and the two flag bytes
+        putInt(out, frameCode);
+        putInt(out, frameSize);
+        out.put((byte) flag1);
+        out.put((byte) flag2);
+	}
+	
+	
     /**
      * Checks if the current frame is equal to the some other frame. Two frames 
      * are said to be identical if they have same frame identifier.
@@ -189,12 +313,35 @@ public class Frame {
         boolean equal = false;
         
         if(frame != null) {
-            equal = this.frameID.equals(frame.frameID);
+            equal = (this.frameCode == frame.frameCode) && this.frameID.equals(frame.frameID);
         }
         
         return equal;
     }
     
+    
+    /**
+     * Checks if the current frame is equal to the some other object. Two frames
+     * are said to be identical if they have same frame identifier.
+     * @param obj Object to be checked.
+     * @return True if the object is a frame equal to the current frame.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return (obj instanceof Frame) && equals((Frame) obj);
+    }
+    
+    
+    /**
+     * Gets, the hash code of the current frame, derived from its frame 
+     * identifier.
+     * @return Hash code of the frame.
+     */
+    @Override
+    public int hashCode() {
+        return frameID.hashCode();
+    }
+    
 
     /**
      * Gets, the encoding of the current ID3 frame.
@@ -210,7 +357,29 @@ public class Frame {
      * @param encoding String containing the encoding description.
      */
     public void setEncoding(String encoding) {
-    	this.encoding = encoding;
+    	setEncodingName(encoding);
+    	this.modified = true;
+    }
+    
+    
+    /**
+     * Sets, the encoding of text read from or already packed into the frame 
+     * data, without marking the frame modified.
+     * @param encoding String containing the encoding description.
+     */
+    void setEncodingName(String encoding) {
+    	this.encoding 	= encoding;
+    	this.charset 	= ID3.getCharset(encoding);
+    }
+    
+    
+    /**
+     * Gets, the charset of the current encoding.
+     * @return Charset used to decode the text of the frame or null if the 
+     * encoding is not supported.
+     */
+    public Charset getCharset() {
+        return charset;
     }
     
 
@@ -231,6 +400,16 @@ public class Frame {
         return frameID;
     }
 
+    /**
+     * Gets, the unique frame ID of the current ID3 frame packed into four bytes.
+     * Comparing packed frame IDs is cheaper than comparing strings.
+     * @return Integer containing packed frame ID.
+     * @see ID3.frameCode(String)
+     */
+    public int getFrameCode() {
+        return frameCode;
+    }
+
     /**
      * Gets, whether the current ID3v2.3 or ID3v2.4 frame is a standard ID3 frame 
      * or not. 
@@ -249,6 +428,8 @@ public class Frame {
     public void setFlags(int flag1, int flag2) {
         this.flag1 = flag1;
         this.flag2 = flag2;
+        
+        this.modified = true;
     }
 
 
@@ -270,6 +451,7 @@ public class Frame {
      */
     public void setFlag1(int value) {
     	flag1 = flag1 | value; 
+    	modified = true;
     }
     
 
@@ -291,14 +473,140 @@ public class Frame {
      */
     public void setFlag2(int value) {
     	flag2 = flag2 | value;
+    	modified = true;
     }
     
     
     /**
-     * Gets, the raw bytes contained in the frame data. 
+     * Gets, a copy of the raw bytes contained in the frame data. Changing the
+     * returned array does not change the frame, use <code>getPayload()</code>
+     * to read the data without copying it.
      * @return Returns an array of bytes containing original frame data.
      */
     public byte[] getData() {
+        ByteBuffer payload = getPayload();
+        byte[] data = new byte[payload.remaining()];
+        payload.get(data);
+        
         return data;
     }
+    
+    
+    /**
+     * Sets, the raw bytes of the frame data and updates the size of the frame.
+     * Subclasses rebuilding the data from changed fields must also call 
+     * <code>setModified()</code>.
+     * @param data New frame data.
+     */
+    protected void setData(byte[] data) {
+        this.data       = data;
+        this.size       = data.length;
+        this.payload    = null;
+    }
+    
+    
+    /**
+     * Gets, a read-only view of the frame data without copying it.
+     * @return Buffer containing the frame data from position 0 to its limit.
+     */
+    public ByteBuffer getPayload() {
+        if(data == null && payload == null)
+            pack();
+        
+        if(data != null)
+            return ByteBuffer.wrap(data, 0, size).slice().asReadOnlyBuffer();
+        
+        return payload.duplicate();
+    }
+    
+    
+    /**
+     * Gets, the frame data held in memory without rebuilding it.
+     * @return Buffer containing the frame data from position 0 to its limit, 
+     * null if the data has been released.
+     */
+    ByteBuffer getStoredPayload() {
+        if(data != null)
+            return ByteBuffer.wrap(data, 0, size).slice();
+        
+        return (payload != null) ? payload.duplicate() : null;
+    }
+    
+    
+    /**
+     * Gets, whether the frame has been changed since it was read from or 
+     * written to the media file. Unmodified frames are written back as they 
+     * are, without being packed again.
+     * @return True if the frame has been modified.
+     */
+    public boolean isModified() {
+        return modified;
+    }
+    
+    
+    /**
+     * Marks the frame as changed, so that it is packed again when the tag is 
+     * written.
+     */
+    protected void setModified() {
+        this.modified = true;
+    }
+    
+    
+    /**
+     * Gets, the position of the frame data in the media file.
+     * @return Position of the data following the frame header, -1 if the frame
+     * is not stored in the media file.
+     */
+    long getSourcePosition() {
+        return sourcePosition;
+    }
+    
+    
+    /**
+     * Gets, the version of the tag the frame is stored in.
+     * @return Version of the tag or null if it is unknown.
+     */
+    TagVersion getSourceVersion() {
+        return sourceVersion;
+    }
+    
+    
+    /**
+     * Records that the frame, header included, is stored unmodified in the 
+     * media file.
+     * @param position Position of the data following the frame header.
+     * @param version Version of the tag holding the frame, null if it is 
+     * unknown. The stored bytes of the frame are reused only while the media
+     * file holds this version of the tag.
+     */
+    void setSource(long position, TagVersion version) {
+        this.sourcePosition = position;
+        this.sourceVersion  = version;
+        this.modified       = false;
+    }
+    
+    
+    /**
+     * Drops the frame data, keeping only the size. Subclasses which hold every
+     * field of the frame in decoded form call this to let go of the loaded tag.
+     * The data is rebuilt by <code>pack()</code> when it is requested again.
+     */
+    void release() {
+        this.payload    = null;
+        this.data       = null;
+    }
+    
+    
+    /**
+     * Re-points the frame data to a new buffer containing identical bytes, 
+     * dropping any private copy. Used after the tag has been written to disk, 
+     * when the previously loaded tag region may no longer be valid.
+     * @param payload Buffer containing the frame data.
+     */
+    void attach(ByteBuffer payload) {
+        this.payload    = payload.slice().asReadOnlyBuffer();
+        this.size       = this.payload.remaining();
+        this.data       = null;
+    }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <code>FrameCodec</code> creates a <code>Frame</code> of a specific type from
+ * the data of a frame read from an ID3 tag. Codecs are registered with the
+ * <code>FrameCodecRegistry</code>.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ * @see FrameCodecRegistry
+ */
+@FunctionalInterface
+public interface FrameCodec {
+
+    /**
+     * Creates a new frame from the frame data.
+     * @param frameCode Packed four byte frame identifier.
+     * @param payload Read-only buffer containing the frame data from position 0
+     * to its limit. The buffer may be kept by the frame, it must not be modified.
+     * @return Instance of Frame.
+     */
+    Frame decode(int frameCode, ByteBuffer payload);
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import static com.codeforwin.id3.ID3.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <code>FrameCodecRegistry</code> maps packed frame identifiers to the
+ * <code>FrameCodec</code> used to create their frames. A codec registered for
+ * an exact frame identifier takes precedence over a codec registered for the
+ * first character of the identifier. Frames without any codec are created as
+ * plain <code>Frame</code>.
+ * <br>
+ * Lookups never allocate and never lock. Registration is expected to happen
+ * rarely, typically at start up, and copies the lookup tables.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ * @see FrameCodec
+ */
+public final class FrameCodecRegistry {
+
+    /**
+     * Lookup tables of codecs registered for exact frame identifiers. 
+     */
+    private static final class Table {
+        final int[] codes;
+        final FrameCodec[] codecs;
+
+        Table(int[] codes, FrameCodec[] codecs) {
+            this.codes  = codes;
+            this.codecs = codecs;
+        }
+    }
+
+    /**
+     * Codec used for frames without any registered codec.
+     */
+    private static final FrameCodec DEFAULT_CODEC = Frame::new;
+
+    /**
+     * Codecs registered for exact frame identifiers, sorted by identifier.
+     */
+    private static volatile Table table = new Table(new int[0], new FrameCodec[0]);
+
+    /**
+     * Codecs registered for the first character of the frame identifier.
+     */
+    private static volatile FrameCodec[] prefixCodecs = new FrameCodec[256];
+
+    static {
+        register(FRAME_APIC, (code, payload) -> new ImageFrame(payload));
+        register(FRAME_COMM, CommentFrame::new);
+        registerPrefix('T', TextFrame::new);
+        registerPrefix('W', TextFrame::new);
+    }
+
+
+    private FrameCodecRegistry() { }
+
+
+    /**
+     * Registers a codec for the given frame identifier, replacing any codec 
+     * registered for it before.
+     * @param frameID Four character frame identifier.
+     * @param codec Codec to be used for the frame.
+     */
+    public static void register(String frameID, FrameCodec codec) {
+        int frameCode = frameCode(frameID);
+        if(frameCode == 0)
+            throw new IllegalArgumentException("Frame identifier must be four characters long.");
+
+        register(frameCode, codec);
+    }
+
+
+    /**
+     * Registers a codec for the given packed frame identifier, replacing any 
+     * codec registered for it before.
+     * @param frameCode Packed frame identifier.
+     * @param codec Codec to be used for the frame.
+     */
+    public static synchronized void register(int frameCode, FrameCodec codec) {
+        if(codec == null)
+            throw new IllegalArgumentException("Codec must not be null.");
+
+        Table current   = table;
+        int index       = Arrays.binarySearch(current.codes, frameCode);
+
+        if(index >= 0) {
+            FrameCodec[] codecs = current.codecs.clone();
+            codecs[index] = codec;
+
+            table = new Table(current.codes, codecs);
+            return;
+        }
+
+        int insert          = -(index + 1);
+        int length          = current.codes.length;
+        int[] codes         = new int[length + 1];
+        FrameCodec[] codecs = new FrameCodec[length + 1];
+
+        System.arraycopy(current.codes, 0, codes, 0, insert);
+        System.arraycopy(current.codecs, 0, codecs, 0, insert);
+        codes[insert]   = frameCode;
+        codecs[insert]  = codec;
+        System.arraycopy(current.codes, insert, codes, insert + 1, length - insert);
+        System.arraycopy(current.codecs, insert, codecs, insert + 1, length - insert);
+
+        table = new Table(codes, codecs);
+    }
+
+
+    /**
+     * Registers a codec for all frames whose identifier starts with the given 
+     * character and which have no codec registered for their exact identifier.
+     * @param prefix First character of the frame identifier.
+     * @param codec Codec to be used for the frames.
+     */
+    public static synchronized void registerPrefix(char prefix, FrameCodec codec) {
+        if(codec == null)
+            throw new IllegalArgumentException("Codec must not be null.");
+        if(prefix > 0xff)
+            throw new IllegalArgumentException("Frame identifiers contain ASCII characters only.");
+
+        FrameCodec[] codecs = prefixCodecs.clone();
+        codecs[prefix] = codec;
+
+        prefixCodecs = codecs;
+    }
+
+
+    /**
+     * Gets, the codec used for the given packed frame identifier.
+     * @param frameCode Packed frame identifier.
+     * @return Codec of the frame, never null.
+     */
+    public static FrameCodec getCodec(int frameCode) {
+        Table current   = table;
+        int index       = Arrays.binarySearch(current.codes, frameCode);
+
+        if(index >= 0)
+            return current.codecs[index];
+
+        FrameCodec codec = prefixCodecs[(frameCode >>> 24) & 0xff];
+
+        return (codec != null) ? codec : DEFAULT_CODEC;
+    }
+
+
+    /**
+     * Creates a new frame using the codec registered for its identifier.
+     * @param frameCode Packed frame identifier.
+     * @param payload Read-only buffer containing the frame data.
+     * @return Instance of Frame.
+     */
+    public static Frame decode(int frameCode, ByteBuffer payload) {
+        return getCodec(frameCode).decode(frameCode, payload);
+    }
+}
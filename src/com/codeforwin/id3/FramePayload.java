@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import static com.codeforwin.id3.ID3.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <code>FramePayload</code> locates the binary payload of a frame, i.e. the
+ * bytes following its text fields, and copies it from the media file to a
+ * channel without reading it into the heap.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ */
+final class FramePayload {
+
+    /**
+     * Number of frame bytes read at first to find the end of the text fields.
+     */
+    private static final int HEAD_SIZE = 512;
+
+
+    private FramePayload() { }
+
+
+    /**
+     * Gets, the offset of the binary payload within the frame data.
+     * <ul>
+     * <li>APIC - encoding, MIME type, picture type and description precede the image.</li>
+     * <li>GEOB - encoding, MIME type, file name and description precede the object.</li>
+     * <li>PRIV - owner identifier precedes the private data.</li>
+     * </ul>
+     * All other frames are binary payload from the first byte.
+     *
+     * @param frameCode Packed frame identifier.
+     * @param head First bytes of the frame data, from 0 to the limit.
+     * @return Offset of the payload or -1 if the text fields do not end within
+     * <code>head</code>.
+     */
+    static int offset(int frameCode, ByteBuffer head) {
+        int index;
+
+        switch (frameCode) {
+            case FRAME_APIC:
+                if(head.limit() < 1)
+                    return -1;
+
+                index = skipString(head, 1, false);     // MIME type
+                if(index < 0 || ++index > head.limit()) // Picture type
+                    return -1;
+
+                return skipString(head, index, isWide(head.get(0)));
+
+            case FRAME_GEOB:
+                if(head.limit() < 1)
+                    return -1;
+
+                index = skipString(head, 1, false);     // MIME type
+                if(index < 0)
+                    return -1;
+
+                index = skipString(head, index, isWide(head.get(0)));
+                if(index < 0)
+                    return -1;
+
+                return skipString(head, index, isWide(head.get(0)));
+
+            case FRAME_PRIV:
+                return skipString(head, 0, false);
+
+            default:
+                return 0;
+        }
+    }
+
+
+    /**
+     * UTF-16 strings are terminated by two zero bytes.
+     */
+    private static boolean isWide(byte encodingByte) {
+        return encodingByte == 1 || encodingByte == 2;
+    }
+
+
+    /**
+     * Gets, the index following the terminator of the string starting at
+     * <code>from</code>, or -1 if the terminator is not within the buffer.
+     */
+    private static int skipString(ByteBuffer head, int from, boolean wide) {
+        int limit = head.limit();
+
+        if(wide) {
+            for(int i = from; i + 1 < limit; i += 2) {
+                if(head.get(i) == 0 && head.get(i + 1) == 0)
+                    return i + 2;
+            }
+        } else {
+            for(int i = from; i < limit; i++) {
+                if(head.get(i) == 0)
+                    return i + 1;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Copies the binary payload of the frame stored at the given position of
+     * the media file to the target.
+     *
+     * @param channel Channel of the media file.
+     * @param frameCode Packed frame identifier.
+     * @param position Absolute position of the frame data in the file.
+     * @param size Size of the frame data.
+     * @param target Channel receiving the payload.
+     * @return Number of payload bytes transferred.
+     * @throws IOException
+     */
+    static long transfer(FileChannel channel, int frameCode, long position, int size, WritableByteChannel target)
+            throws IOException {
+        int offset      = -1;
+        int headSize    = Math.min(size, HEAD_SIZE);
+
+        // Read more of the frame until the text fields end
+        while(offset < 0) {
+            ByteBuffer head = ByteBuffer.allocate(headSize);
+            TagLoader.readFully(channel, head, position);
+            head.flip();
+
+            offset = offset(frameCode, head);
+
+            if(offset < 0) {
+                if(headSize == size || head.limit() < headSize)
+                    throw new IOException("Malformed frame, payload not found.");
+
+                headSize = (int) Math.min(size, headSize * 2L);
+            }
+        }
+
+        long start      = position + offset;
+        long count      = size - offset;
+        long transferred = 0;
+
+        while(transferred < count) {
+            long n = channel.transferTo(start + transferred, count - transferred, target);
+
+            // Media file truncated
+            if(n <= 0)
+                throw new IOException("Unable to transfer frame payload.");
+
+            transferred += n;
+        }
+
+        return transferred;
+    }
+}
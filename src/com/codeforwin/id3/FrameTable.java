@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import static com.codeforwin.id3.ID3.HEADER_SIZE;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * <code>FrameTable</code> is the table of contents of a loaded ID3 tag. It
+ * records the identifier, offset, size and flags of every frame while scanning
+ * the tag and creates the <code>Frame</code> objects only when they are first
+ * accessed.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ */
+final class FrameTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Tag data following the 10 byte ID3 header.
+     */
+    private final ByteBuffer tag;
+
+    /**
+     * Number of frames in the table.
+     */
+    private int count;
+
+    /**
+     * Packed four byte identifier of each frame.
+     */
+    private int[] ids;
+
+    /**
+     * Offset of each frame data, relative to the start of the tag data.
+     */
+    private int[] offsets;
+
+    /**
+     * Size of each frame data.
+     */
+    private int[] sizes;
+
+    /**
+     * Both flag bytes of each frame, first flag in the high byte.
+     */
+    private short[] flags;
+
+    /**
+     * Frames created so far, null until first accessed.
+     */
+    private Frame[] frames;
+
+    /**
+     * Number of zero padding bytes after the last frame.
+     */
+    private int padding;
+
+    /**
+     * Version of the tag in the media file, null if the table holds a copy of
+     * some frames of a tag, whose frames are not stored in the media file at
+     * the recorded offsets.
+     */
+    private final TagVersion version;
+
+
+    private FrameTable(ByteBuffer tag, TagVersion version) {
+        this.tag        = tag;
+        this.version    = version;
+
+        this.ids        = new int[INITIAL_CAPACITY];
+        this.offsets    = new int[INITIAL_CAPACITY];
+        this.sizes      = new int[INITIAL_CAPACITY];
+        this.flags      = new short[INITIAL_CAPACITY];
+    }
+
+
+    /**
+     * Scans the frame headers of the tag without decoding any frame data.
+     * @param tag Buffer containing the tag data following the 10 byte header.
+     * @param version Version of the tag in the media file, null if the frames
+     * are not stored in the media file.
+     * @return Table of contents of the tag.
+     */
+    static FrameTable scan(ByteBuffer tag, TagVersion version) {
+        FrameTable table = new FrameTable(tag, version);
+
+        int index   = tag.position();
+        int limit   = tag.limit();
+
+        while (limit - index >= HEADER_SIZE) {
+            /**
+             * Each ID3 frame contains a 10 byte header.
+             * First 4 bytes represents unique ID of the frame.
+             * Next  4 bytes represents the size of frame data.
+             * Last  2 bytes represents the flags used in the frame.
+             */
+
+            // Rest of the tag is padding
+            if(tag.get(index) == 0)
+                break;
+
+            int frameCode   = tag.getInt(index);
+            int dataSize    = tag.getInt(index + 4);
+            int flag        = tag.getShort(index + 8);
+
+            index += HEADER_SIZE;
+
+            // Corrupt frame size, stop parsing
+            if(dataSize < 0 || dataSize > limit - index)
+                break;
+
+            table.add(frameCode, index - tag.position(), dataSize, flag);
+
+            index += dataSize;
+        }
+
+        table.padding = limit - index;
+        table.frames  = new Frame[table.count];
+
+        return table;
+    }
+
+
+    /**
+     * Copies the frames accepted by the filter into a table of their own, so
+     * that the copy does not refer to the loaded tag. Frames of the copy are
+     * not stored in the media file and are meant to be read only.
+     * @param filter Accepts the packed identifiers of the frames to be copied.
+     * @return Table of contents of the copied frames.
+     */
+    FrameTable copy(IntPredicate filter) {
+        int length = 0;
+
+        for(int i = 0; i < count; i++) {
+            if(filter.test(ids[i]))
+                length += HEADER_SIZE + sizes[i];
+        }
+
+        ByteBuffer frameData = ByteBuffer.allocate(length);
+
+        for(int i = 0; i < count; i++) {
+            if(!filter.test(ids[i]))
+                continue;
+
+            ByteBuffer data = tag.duplicate();
+            data.position(tag.position() + offsets[i]);
+            data.limit(data.position() + sizes[i]);
+
+            frameData.putInt(ids[i]).putInt(sizes[i]).putShort(flags[i]).put(data);
+        }
+
+        frameData.flip();
+
+        return scan(frameData, null);
+    }
+
+
+    private void add(int frameCode, int offset, int size, int flag) {
+        if(count == ids.length) {
+            int capacity = count * 2;
+
+            ids     = Arrays.copyOf(ids, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            sizes   = Arrays.copyOf(sizes, capacity);
+            flags   = Arrays.copyOf(flags, capacity);
+        }
+
+        ids[count]      = frameCode;
+        offsets[count]  = offset;
+        sizes[count]    = size;
+        flags[count]    = (short) flag;
+
+        count++;
+    }
+
+
+    /**
+     * Gets, the index of the next frame with the given identifier.
+     * @param frameCode Packed frame identifier.
+     * @param from Index to start searching from.
+     * @return Index of the frame or -1 if there is no such frame.
+     */
+    int indexOf(int frameCode, int from) {
+        for(int i = from; i < count; i++) {
+            if(ids[i] == frameCode)
+                return i;
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Gets, the frame at the given index, creating it on first access.
+     * @param index Index of the frame in the tag.
+     * @return Frame at the index.
+     */
+    Frame get(int index) {
+        Frame frame = frames[index];
+
+        if(frame == null) {
+            ByteBuffer data = tag.duplicate();
+            data.position(tag.position() + offsets[index]);
+            data.limit(data.position() + sizes[index]);
+
+            frame = FrameCodecRegistry.decode(ids[index], data.slice().asReadOnlyBuffer());
+            frame.setFlags((flags[index] >> 8) & 0xff, flags[index] & 0xff);
+
+            // The tag follows the 10 byte header of the media file
+            if(version != null)
+                frame.setSource(HEADER_SIZE + offsets[index], version);
+
+            frames[index] = frame;
+        }
+
+        return frame;
+    }
+
+
+    /**
+     * Gets, the packed identifier of the frame at the given index.
+     * @param index Index of the frame in the tag.
+     * @return Packed frame identifier.
+     */
+    int getFrameCode(int index) {
+        return ids[index];
+    }
+
+
+    /**
+     * Gets, the offset of the frame data at the given index, relative to the 
+     * start of the tag data.
+     * @param index Index of the frame in the tag.
+     * @return Offset of the frame data.
+     */
+    int getOffset(int index) {
+        return offsets[index];
+    }
+
+
+    /**
+     * Gets, the size of the frame data at the given index.
+     * @param index Index of the frame in the tag.
+     * @return Size of the frame data excluding the header.
+     */
+    int getSize(int index) {
+        return sizes[index];
+    }
+
+
+    /**
+     * Gets, both flag bytes of the frame at the given index.
+     * @param index Index of the frame in the tag.
+     * @return Flags of the frame, first flag in the high byte.
+     */
+    int getFlags(int index) {
+        return flags[index] & 0xffff;
+    }
+
+
+    /**
+     * Gets, the total number of frames in the tag.
+     * @return Number of frames.
+     */
+    int size() {
+        return count;
+    }
+
+
+    /**
+     * Gets, the number of zero padding bytes after the last frame.
+     * @return Size of padding in bytes.
+     */
+    int getPadding() {
+        return padding;
+    }
+}
@@ -10,6 +10,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import javax.imageio.ImageIO;
 
@@ -30,9 +36,13 @@ public class ID3 {
     public final static String 	ENCODING_UTF16BE     	= "UTF-16BE";
     public final static String 	ENCODING_UTF16LE     	= "UTF-16LE";
     
+    // MIME type of an image whose format is not known, as implied by the ID3 standard
+    public final static String 	MIME_TYPE_UNKNOWN		= "image/";
+    
     public final static int    	FLAG_UNSYNCRONIZATION	= 0x80; // 10000000
     public final static int    	FLAG_EXTENDED_HEADER 	= 0x40; // 01000000
     public final static int    	FLAG_EXPERIMENTAL    	= 0x20; // 00100000
+    public final static int    	FLAG_FOOTER          	= 0x10; // 00010000
     
     public final static String 	ID3_TAG_IDENTIFIER		= "ID3";
     
@@ -51,6 +61,131 @@ public class ID3 {
 			"TSST", "TXXX", "UFID", "USER", "USLT", "WCOM", "WCOP", "WOAF", "WOAR", "WOAS", "WORS", "WPAY", "WPUB", 
 			"WXXX" };
     
+	/**
+	 * Sorted packed identifiers of all standard frames, used for constant time
+	 * validation and lookup of frame identifiers.
+	 */
+	private final static int[] STANDARD_FRAME_CODES;
+	
+	/**
+	 * Frame identifier strings, in the same order as <code>STANDARD_FRAME_CODES</code>.
+	 */
+	private final static String[] STANDARD_FRAME_NAMES;
+	
+	static {
+		int[] codes = new int[STANDARD_FRAMES.length];
+		for (int i = 0; i < codes.length; i++) {
+			codes[i] = frameCode(STANDARD_FRAMES[i]);
+		}
+		Arrays.sort(codes);
+		
+		String[] names = new String[codes.length];
+		for (String name : STANDARD_FRAMES) {
+			names[Arrays.binarySearch(codes, frameCode(name))] = name;
+		}
+		
+		STANDARD_FRAME_CODES = codes;
+		STANDARD_FRAME_NAMES = names;
+	}
+	
+	/**
+	 * Packed four byte identifiers of the standard frames. A packed identifier is 
+	 * the big endian integer formed by the four ASCII characters of the frame ID,
+	 * exactly as stored in the frame header.
+	 */
+    public final static int	FRAME_AENC				= 0x41454e43; // AENC
+    public final static int	FRAME_APIC				= 0x41504943; // APIC
+    public final static int	FRAME_ASPI				= 0x41535049; // ASPI
+    public final static int	FRAME_COMM				= 0x434f4d4d; // COMM
+    public final static int	FRAME_COMR				= 0x434f4d52; // COMR
+    public final static int	FRAME_TSIZ				= 0x5453495a; // TSIZ
+    public final static int	FRAME_ENCR				= 0x454e4352; // ENCR
+    public final static int	FRAME_EQUA				= 0x45515541; // EQUA
+    public final static int	FRAME_EQU2				= 0x45515532; // EQU2
+    public final static int	FRAME_ETCO				= 0x4554434f; // ETCO
+    public final static int	FRAME_GEOB				= 0x47454f42; // GEOB
+    public final static int	FRAME_GRID				= 0x47524944; // GRID
+    public final static int	FRAME_LINK				= 0x4c494e4b; // LINK
+    public final static int	FRAME_MCDI				= 0x4d434449; // MCDI
+    public final static int	FRAME_MLLT				= 0x4d4c4c54; // MLLT
+    public final static int	FRAME_OWNE				= 0x4f574e45; // OWNE
+    public final static int	FRAME_PCNT				= 0x50434e54; // PCNT
+    public final static int	FRAME_POPM				= 0x504f504d; // POPM
+    public final static int	FRAME_POSS				= 0x504f5353; // POSS
+    public final static int	FRAME_PRIV				= 0x50524956; // PRIV
+    public final static int	FRAME_RBUF				= 0x52425546; // RBUF
+    public final static int	FRAME_RVAD				= 0x52564144; // RVAD
+    public final static int	FRAME_RVA2				= 0x52564132; // RVA2
+    public final static int	FRAME_RVRB				= 0x52565242; // RVRB
+    public final static int	FRAME_SEEK				= 0x5345454b; // SEEK
+    public final static int	FRAME_SIGN				= 0x5349474e; // SIGN
+    public final static int	FRAME_SYLT				= 0x53594c54; // SYLT
+    public final static int	FRAME_SYTC				= 0x53595443; // SYTC
+    public final static int	FRAME_TALB				= 0x54414c42; // TALB
+    public final static int	FRAME_TBPM				= 0x5442504d; // TBPM
+    public final static int	FRAME_TCOM				= 0x54434f4d; // TCOM
+    public final static int	FRAME_TCON				= 0x54434f4e; // TCON
+    public final static int	FRAME_TCOP				= 0x54434f50; // TCOP
+    public final static int	FRAME_TDEN				= 0x5444454e; // TDEN
+    public final static int	FRAME_TDLY				= 0x54444c59; // TDLY
+    public final static int	FRAME_TORY				= 0x544f5259; // TORY
+    public final static int	FRAME_TDOR				= 0x54444f52; // TDOR
+    public final static int	FRAME_TDAT				= 0x54444154; // TDAT
+    public final static int	FRAME_TDRC				= 0x54445243; // TDRC
+    public final static int	FRAME_TRDA				= 0x54524441; // TRDA
+    public final static int	FRAME_TIME				= 0x54494d45; // TIME
+    public final static int	FRAME_TYER				= 0x54594552; // TYER
+    public final static int	FRAME_TDRL				= 0x5444524c; // TDRL
+    public final static int	FRAME_TDTG				= 0x54445447; // TDTG
+    public final static int	FRAME_TENC				= 0x54454e43; // TENC
+    public final static int	FRAME_TEXT				= 0x54455854; // TEXT
+    public final static int	FRAME_TFLT				= 0x54464c54; // TFLT
+    public final static int	FRAME_IPLS				= 0x49504c53; // IPLS
+    public final static int	FRAME_TIPL				= 0x5449504c; // TIPL
+    public final static int	FRAME_TIT1				= 0x54495431; // TIT1
+    public final static int	FRAME_TIT2				= 0x54495432; // TIT2
+    public final static int	FRAME_TIT3				= 0x54495433; // TIT3
+    public final static int	FRAME_TKEY				= 0x544b4559; // TKEY
+    public final static int	FRAME_TLAN				= 0x544c414e; // TLAN
+    public final static int	FRAME_TLEN				= 0x544c454e; // TLEN
+    public final static int	FRAME_TMCL				= 0x544d434c; // TMCL
+    public final static int	FRAME_TMED				= 0x544d4544; // TMED
+    public final static int	FRAME_TMOO				= 0x544d4f4f; // TMOO
+    public final static int	FRAME_TOAL				= 0x544f414c; // TOAL
+    public final static int	FRAME_TOFN				= 0x544f464e; // TOFN
+    public final static int	FRAME_TOLY				= 0x544f4c59; // TOLY
+    public final static int	FRAME_TOPE				= 0x544f5045; // TOPE
+    public final static int	FRAME_TOWN				= 0x544f574e; // TOWN
+    public final static int	FRAME_TPE1				= 0x54504531; // TPE1
+    public final static int	FRAME_TPE2				= 0x54504532; // TPE2
+    public final static int	FRAME_TPE3				= 0x54504533; // TPE3
+    public final static int	FRAME_TPE4				= 0x54504534; // TPE4
+    public final static int	FRAME_TPOS				= 0x54504f53; // TPOS
+    public final static int	FRAME_TPRO				= 0x5450524f; // TPRO
+    public final static int	FRAME_TPUB				= 0x54505542; // TPUB
+    public final static int	FRAME_TRCK				= 0x5452434b; // TRCK
+    public final static int	FRAME_TRSN				= 0x5452534e; // TRSN
+    public final static int	FRAME_TRSO				= 0x5452534f; // TRSO
+    public final static int	FRAME_TSOA				= 0x54534f41; // TSOA
+    public final static int	FRAME_TSOP				= 0x54534f50; // TSOP
+    public final static int	FRAME_TSOT				= 0x54534f54; // TSOT
+    public final static int	FRAME_TSRC				= 0x54535243; // TSRC
+    public final static int	FRAME_TSSE				= 0x54535345; // TSSE
+    public final static int	FRAME_TSST				= 0x54535354; // TSST
+    public final static int	FRAME_TXXX				= 0x54585858; // TXXX
+    public final static int	FRAME_UFID				= 0x55464944; // UFID
+    public final static int	FRAME_USER				= 0x55534552; // USER
+    public final static int	FRAME_USLT				= 0x55534c54; // USLT
+    public final static int	FRAME_WCOM				= 0x57434f4d; // WCOM
+    public final static int	FRAME_WCOP				= 0x57434f50; // WCOP
+    public final static int	FRAME_WOAF				= 0x574f4146; // WOAF
+    public final static int	FRAME_WOAR				= 0x574f4152; // WOAR
+    public final static int	FRAME_WOAS				= 0x574f4153; // WOAS
+    public final static int	FRAME_WORS				= 0x574f5253; // WORS
+    public final static int	FRAME_WPAY				= 0x57504159; // WPAY
+    public final static int	FRAME_WPUB				= 0x57505542; // WPUB
+    public final static int	FRAME_WXXX				= 0x57585858; // WXXX
+    
 	/**
 	 * List of all default Genres
 	 */
@@ -100,6 +235,51 @@ public class ID3 {
 			};
 	
 	
+	/**
+	 * Converts a four character frame identifier to its packed integer form.
+	 * @param frameID Four character frame identifier.
+	 * @return Packed frame identifier, 0 if the identifier is not four characters long.
+	 */
+	public static int frameCode(String frameID) {
+		if(frameID == null || frameID.length() != 4)
+			return 0;
+		
+		return (frameID.charAt(0) & 0xff) << 24 | (frameID.charAt(1) & 0xff) << 16 
+				| (frameID.charAt(2) & 0xff) << 8 | (frameID.charAt(3) & 0xff);
+	}
+	
+	
+	/**
+	 * Converts a packed frame identifier to its four character form. Standard 
+	 * frame identifiers are returned without allocating a new string.
+	 * @param frameCode Packed frame identifier.
+	 * @return Four character frame identifier.
+	 */
+	public static String frameID(int frameCode) {
+		int index = Arrays.binarySearch(STANDARD_FRAME_CODES, frameCode);
+		if(index >= 0)
+			return STANDARD_FRAME_NAMES[index];
+		
+		char[] chars = new char[] {
+			(char) ((frameCode >>> 24) & 0xff), (char) ((frameCode >>> 16) & 0xff), 
+			(char) ((frameCode >>> 8) & 0xff),	(char) (frameCode & 0xff)
+		};
+		
+		return new String(chars);
+	}
+	
+	
+	/**
+	 * Checks whether the packed frame identifier is a standard ID3v2.3 or ID3v2.4
+	 * frame identifier.
+	 * @param frameCode Packed frame identifier.
+	 * @return True if it is a standard frame identifier otherwise false.
+	 */
+	public static boolean isStandardFrame(int frameCode) {
+		return Arrays.binarySearch(STANDARD_FRAME_CODES, frameCode) >= 0;
+	}
+	
+	
 	/**
 	 * Converts an integer to four bytes array using ID3 size packing specification. 
 	 * Size : 4 * %0xxxxxxx
@@ -124,9 +304,33 @@ public class ID3 {
 	 * @return Returns the converted integer.
 	 */
 	public static int unpackInteger(byte[] bytes) {
-		int value = (bytes[0] << 21) | (bytes[1] << 14) | (bytes[2] << 7) | bytes[3];
-		
-		return value;
+		return unpackInteger(bytes, 0);
+	}
+	
+	
+	/**
+	 * Converts four bytes of the array to integer using ID3 size packing 
+	 * specification, without copying them.
+	 * @param bytes Array of bytes containing the packed integer.
+	 * @param offset Index of the first byte.
+	 * @return Returns the converted integer.
+	 */
+	public static int unpackInteger(byte[] bytes, int offset) {
+		return (bytes[offset] & SEVEN_BIT_MASK) << 21 | (bytes[offset + 1] & SEVEN_BIT_MASK) << 14 
+				| (bytes[offset + 2] & SEVEN_BIT_MASK) << 7 | (bytes[offset + 3] & SEVEN_BIT_MASK);
+	}
+	
+	
+	/**
+	 * Converts four bytes of the buffer to integer using ID3 size packing
+	 * specification. The position of the buffer is not modified.
+	 * @param buffer Buffer containing the packed integer.
+	 * @param index Absolute index of the first byte.
+	 * @return Returns the converted integer.
+	 */
+	public static int unpackInteger(ByteBuffer buffer, int index) {
+		return (buffer.get(index) & SEVEN_BIT_MASK) << 21 | (buffer.get(index + 1) & SEVEN_BIT_MASK) << 14 
+				| (buffer.get(index + 2) & SEVEN_BIT_MASK) << 7 | (buffer.get(index + 3) & SEVEN_BIT_MASK);
 	}
 	
 	
@@ -139,7 +343,7 @@ public class ID3 {
 		if(bytes.length != 4)
 			throw new IllegalArgumentException("Bytes array must be of length 4.");
 		
-		return ByteBuffer.wrap(bytes, 0, bytes.length).getInt();
+		return getInteger(bytes, 0);
 	}
 	
 	
@@ -153,7 +357,39 @@ public class ID3 {
 		if(bytes.length - startIndex < 4)
 			throw new IllegalArgumentException("Bytes array must be atleast 4 byte long.");
 		
-		return ByteBuffer.wrap(bytes, startIndex, 4).getInt();
+		return (bytes[startIndex] & 0xff) << 24 | (bytes[startIndex + 1] & 0xff) << 16 
+				| (bytes[startIndex + 2] & 0xff) << 8 | (bytes[startIndex + 3] & 0xff);
+	}
+	
+	
+	/**
+	 * Gets, the charset of the given encoding. The ID3 encodings are resolved
+	 * without a charset lookup.
+	 * @param encoding Name of the encoding.
+	 * @return Charset of the encoding or null if the encoding is not supported.
+	 */
+	public static Charset getCharset(String encoding) {
+		if(encoding == null)
+			return null;
+		
+		switch(encoding) {
+		case ENCODING_ISO_8859_1:
+			return StandardCharsets.ISO_8859_1;
+		case ENCODING_UTF8:
+			return StandardCharsets.UTF_8;
+		case ENCODING_UTF16:
+			return StandardCharsets.UTF_16;
+		case ENCODING_UTF16BE:
+			return StandardCharsets.UTF_16BE;
+		case ENCODING_UTF16LE:
+			return StandardCharsets.UTF_16LE;
+		default:
+			try {
+				return Charset.forName(encoding);
+			} catch (IllegalArgumentException ex) {
+				return null;
+			}
+		}
 	}
 	
 	
@@ -165,11 +401,7 @@ public class ID3 {
 	 * returns null.
 	 */
 	public static String getString(byte[] bytes, String encoding) {
-		try {
-			return new String(bytes, 0, bytes.length, encoding);
-		} catch (UnsupportedEncodingException ex) {
-			return null;
-		}
+		return getString(bytes, 0, bytes.length, encoding);
 	}
 	
 	
@@ -183,11 +415,126 @@ public class ID3 {
 	 * returns null.
 	 */
 	public static String getString(byte[] bytes, int start, int length, String encoding) {
-		try {
-			return new String(bytes, start, length, encoding);
-		} catch (UnsupportedEncodingException ex) {
+		Charset charset = getCharset(encoding);
+		
+		return (charset == null) ? null : getString(ByteBuffer.wrap(bytes), start, length, charset);
+	}
+	
+	
+	/**
+	 * Converts the content of the given buffer, from its position to its limit,
+	 * to string using specified encoding. The position of the buffer is not 
+	 * modified.
+	 * @param buffer Buffer containing string.
+	 * @param encoding Encoding in which string needs to be decoded.
+	 * @return Returns the converted string. In case encoding is not correct
+	 * returns null.
+	 */
+	public static String getString(ByteBuffer buffer, String encoding) {
+		return getString(buffer, buffer.position(), buffer.remaining(), encoding);
+	}
+	
+	
+	/**
+	 * Converts the content of the given buffer to string using specified encoding.
+	 * The position of the buffer is not modified.
+	 * @param buffer Buffer containing string.
+	 * @param start Absolute starting position of the string in buffer.
+	 * @param length Length of string in buffer.
+	 * @param encoding Encoding in which string needs to be decoded.
+	 * @return Returns the converted string. In case encoding is not correct
+	 * returns null.
+	 */
+	public static String getString(ByteBuffer buffer, int start, int length, String encoding) {
+		Charset charset = getCharset(encoding);
+		
+		return (charset == null) ? null : getString(buffer, start, length, charset);
+	}
+	
+	
+	/**
+	 * Converts the content of the given buffer, from its position to its limit,
+	 * to string using specified charset. The position of the buffer is not 
+	 * modified.
+	 * @param buffer Buffer containing string.
+	 * @param charset Charset in which string needs to be decoded.
+	 * @return Returns the converted string or null if the charset is null.
+	 */
+	public static String getString(ByteBuffer buffer, Charset charset) {
+		return getString(buffer, buffer.position(), buffer.remaining(), charset);
+	}
+	
+	
+	/**
+	 * Converts the content of the given buffer to string using specified charset.
+	 * The position of the buffer is not modified. 
+	 * <br>
+	 * Latin-1 text and ASCII text in UTF-8 are converted byte by byte without a
+	 * decoder. Other text is decoded by a decoder cached for the calling thread.
+	 * Malformed input is replaced as by <code>new String(byte[], Charset)</code>.
+	 * 
+	 * @param buffer Buffer containing string.
+	 * @param start Absolute starting position of the string in buffer.
+	 * @param length Length of string in buffer.
+	 * @param charset Charset in which string needs to be decoded.
+	 * @return Returns the converted string or null if the charset is null.
+	 */
+	public static String getString(ByteBuffer buffer, int start, int length, Charset charset) {
+		if(charset == null)
 			return null;
+		
+		if(length <= 0)
+			return "";
+		
+		ParseContext context = ParseContext.get();
+		
+		boolean latin1	= charset.equals(StandardCharsets.ISO_8859_1);
+		boolean ascii	= latin1 || charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII);
+		
+		if(ascii) {
+			char[] chars = context.chars(length).array();
+			int i = 0;
+			
+			if(buffer.hasArray()) {
+				byte[] bytes	= buffer.array();
+				int offset		= buffer.arrayOffset() + start;
+				
+				for(; i < length; i++) {
+					byte b = bytes[offset + i];
+					if(b < 0 && !latin1)
+						break;
+					
+					chars[i] = (char) (b & 0xff);
+				}
+			} else {
+				for(; i < length; i++) {
+					byte b = buffer.get(start + i);
+					if(b < 0 && !latin1)
+						break;
+					
+					chars[i] = (char) (b & 0xff);
+				}
+			}
+			
+			if(i == length)
+				return new String(chars, 0, length);
 		}
+		
+		// Text outside of ASCII, decode it
+		CharsetDecoder decoder	= context.decoder(charset);
+		CharBuffer out			= context.chars((int) Math.ceil(length * (double) decoder.maxCharsPerByte()));
+		
+		ByteBuffer in = buffer.duplicate();
+		in.limit(start + length);
+		in.position(start);
+		
+		if(decoder.decode(in, out, true).isOverflow() || decoder.flush(out).isOverflow()) {
+			in.position(start);
+			
+			return charset.decode(in).toString();
+		}
+		
+		return new String(out.array(), 0, out.position());
 	}
 	
 	
@@ -209,6 +556,39 @@ public class ID3 {
 	}
 	
 	
+	/**
+	 * Detects the MIME type of an encoded image from its magic bytes.
+	 * @param image Buffer containing the image from its position to its limit.
+	 * @return MIME type of the image, <code>MIME_TYPE_UNKNOWN</code> if the 
+	 * format is not recognized.
+	 */
+	public static String getMimeType(ByteBuffer image) {
+		int p = image.position();
+		int length = image.remaining();
+		
+		if(length >= 3 && image.get(p) == (byte)0xff && image.get(p + 1) == (byte)0xd8 && image.get(p + 2) == (byte)0xff)
+			return "image/jpeg";
+		
+		if(length >= 8 && image.getLong(p) == 0x89504e470d0a1a0aL)
+			return "image/png";
+		
+		if(length >= 6 && image.get(p) == 'G' && image.get(p + 1) == 'I' && image.get(p + 2) == 'F' 
+				&& image.get(p + 3) == '8' && (image.get(p + 4) == '7' || image.get(p + 4) == '9') && image.get(p + 5) == 'a')
+			return "image/gif";
+		
+		if(length >= 12 && image.getInt(p) == 0x52494646 && image.getInt(p + 8) == 0x57454250) // RIFF....WEBP
+			return "image/webp";
+		
+		if(length >= 4 && (image.getInt(p) == 0x49492a00 || image.getInt(p) == 0x4d4d002a)) // II*. or MM.*
+			return "image/tiff";
+		
+		if(length >= 2 && image.get(p) == 'B' && image.get(p + 1) == 'M')
+			return "image/bmp";
+		
+		return MIME_TYPE_UNKNOWN;
+	}
+	
+	
 	/**
 	 * Converts string to bytes.
 	 * @param str String to be converted to bytes
@@ -224,6 +604,163 @@ public class ID3 {
 	}
 	
 	
+	/**
+	 * Gets, the number of bytes of the string in the given encoding, i.e. the
+	 * length of <code>getBytes(str, encoding)</code>. The string is not encoded 
+	 * for the encodings supported by ID3 frames.
+	 * @param str String to be measured.
+	 * @param encoding Encoding in which string is to be encoded.
+	 * @return Number of bytes of the encoded string.
+	 */
+	public static int getByteCount(String str, String encoding) {
+		int count = encode(str, encoding, null);
+		
+		return (count >= 0) ? count : getBytes(str, encoding).length;
+	}
+	
+	
+	/**
+	 * Encodes the string at the position of the buffer, producing the same 
+	 * bytes as <code>getBytes(str, encoding)</code>. No intermediate array is 
+	 * allocated for the encodings supported by ID3 frames.
+	 * @param out Buffer receiving the encoded string.
+	 * @param str String to be encoded.
+	 * @param encoding Encoding in which string is to be encoded.
+	 */
+	public static void putString(ByteBuffer out, String str, String encoding) {
+		if(encode(str, encoding, out) < 0)
+			out.put(getBytes(str, encoding));
+	}
+	
+	
+	/**
+	 * Encodes the string into the buffer, or only counts the bytes if the 
+	 * buffer is null. Malformed surrogates are replaced the same way as by 
+	 * <code>String.getBytes()</code>.
+	 * @return Number of bytes, -1 if the encoding is not handled here.
+	 */
+	private static int encode(String str, String encoding, ByteBuffer out) {
+		int length	= str.length();
+		int count	= 0;
+		
+		switch(encoding) {
+		case ENCODING_ISO_8859_1:
+			for(int i = 0; i < length; i++) {
+				char c = str.charAt(i);
+				
+				// A surrogate pair is replaced by a single character
+				if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1)))
+					i++;
+				
+				if(out != null)
+					out.put((c <= 0xff) ? (byte) c : (byte) '?');
+				count++;
+			}
+			return count;
+			
+		case ENCODING_UTF8:
+			for(int i = 0; i < length; i++) {
+				char c = str.charAt(i);
+				
+				if(c < 0x80) {
+					if(out != null)
+						out.put((byte) c);
+					count += 1;
+				} else if(c < 0x800) {
+					if(out != null)
+						out.put((byte) (0xc0 | (c >> 6))).put((byte) (0x80 | (c & 0x3f)));
+					count += 2;
+				} else if(!Character.isSurrogate(c)) {
+					if(out != null)
+						out.put((byte) (0xe0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3f)))
+						   .put((byte) (0x80 | (c & 0x3f)));
+					count += 3;
+				} else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+					int cp = Character.toCodePoint(c, str.charAt(++i));
+					if(out != null)
+						out.put((byte) (0xf0 | (cp >> 18))).put((byte) (0x80 | ((cp >> 12) & 0x3f)))
+						   .put((byte) (0x80 | ((cp >> 6) & 0x3f))).put((byte) (0x80 | (cp & 0x3f)));
+					count += 4;
+				} else {
+					if(out != null)
+						out.put((byte) '?');
+					count += 1;
+				}
+			}
+			return count;
+			
+		case ENCODING_UTF16:
+		case ENCODING_UTF16BE:
+		case ENCODING_UTF16LE:
+			boolean littleEndian = encoding.equals(ENCODING_UTF16LE);
+			
+			// Byte order mark precedes non empty UTF-16 strings
+			if(encoding.equals(ENCODING_UTF16) && length > 0) {
+				if(out != null)
+					out.put((byte) 0xfe).put((byte) 0xff);
+				count += 2;
+			}
+			
+			for(int i = 0; i < length; i++) {
+				char c = str.charAt(i);
+				
+				if(Character.isSurrogate(c)) {
+					if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+						putChar(out, c, littleEndian);
+						c = str.charAt(++i);
+						count += 2;
+					} else {
+						c = '\ufffd';
+					}
+				}
+				
+				putChar(out, c, littleEndian);
+				count += 2;
+			}
+			return count;
+			
+		default:
+			return -1;
+		}
+	}
+	
+	
+	private static void putChar(ByteBuffer out, char c, boolean littleEndian) {
+		if(out == null)
+			return;
+		
+		if(littleEndian)
+			out.put((byte) c).put((byte) (c >> 8));
+		else
+			out.put((byte) (c >> 8)).put((byte) c);
+	}
+	
+	
+	/**
+	 * Writes an integer at the position of the buffer in big endian byte order,
+	 * whatever the byte order of the buffer.
+	 * @param out Buffer receiving the integer.
+	 * @param value Integer to be written.
+	 */
+	public static void putInt(ByteBuffer out, int value) {
+		out.putInt((out.order() == ByteOrder.BIG_ENDIAN) ? value : Integer.reverseBytes(value));
+	}
+	
+	
+	/**
+	 * Writes an integer at the position of the buffer using ID3 size packing 
+	 * specification, see <code>packInteger()</code>.
+	 * @param out Buffer receiving the four bytes.
+	 * @param value Integer to be written.
+	 */
+	public static void putPackedInteger(ByteBuffer out, int value) {
+		out.put((byte) ((value >>> 21) & SEVEN_BIT_MASK));
+		out.put((byte) ((value >>> 14) & SEVEN_BIT_MASK));
+		out.put((byte) ((value >>> 7 ) & SEVEN_BIT_MASK));
+		out.put((byte) ((value       ) & SEVEN_BIT_MASK));
+	}
+	
+	
 	/**
 	 * Converts integer to bytes.
 	 * @param number Integer to be converted to bytes
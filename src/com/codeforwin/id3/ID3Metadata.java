@@ -18,12 +18,27 @@
 package com.codeforwin.id3;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import static com.codeforwin.id3.ID3.*;
 
 /**
@@ -73,6 +88,43 @@ public class ID3Metadata {
      */
     private ArrayList<Frame> frameList;
     
+    /**
+     * Frames of the list grouped by frame ID, each group in insertion order.
+     */
+    private final LinkedHashMap<String, ArrayList<Frame>> frameIndex;
+    
+    /**
+     * Frames removed from the index but not yet from the list of frames. The
+     * list is compacted once, before it is read in order.
+     */
+    private final Set<Frame> removedFrames;
+    
+    /**
+     * True if all frames of the tag have been added to the list of frames.
+     */
+    private boolean framesLoaded;
+    
+    /**
+     * Table of contents of the loaded tag.
+     */
+    private FrameTable frameTable;
+    
+    /**
+     * Version of the tag in the media file the frames have been read from or
+     * last written to, null if it is not known.
+     */
+    private TagVersion tagVersion;
+    
+    /**
+     * Number of zero padding bytes at the end of the tag.
+     */
+    private int padding;
+    
+    /**
+     * Padding added to the tag whenever the whole media file is rewritten.
+     */
+    private PaddingPolicy paddingPolicy;
+    
     
     /**
      * Initializes a new instance of <code>ID3Metadata</code> with default values.
@@ -89,8 +141,12 @@ public class ID3Metadata {
         this.majorVersion           = 3;
         this.minorVersion           = 0;
         this.size                   = 0;
+        this.padding                = 0;
+        this.paddingPolicy          = PaddingPolicy.DEFAULT;
         
         this.frameList				= new ArrayList<>();
+        this.frameIndex             = new LinkedHashMap<>();
+        this.removedFrames          = Collections.newSetFromMap(new IdentityHashMap<>());
     }
     
     /**
@@ -111,20 +167,18 @@ public class ID3Metadata {
     public static ID3Metadata parseMedia(File file) throws IOException {
         ID3Metadata id3 = null;
 
-        byte headerInfo[] = new byte[HEADER_SIZE];
+        ByteBuffer header = ParseContext.get().header();
 
-        String identifier = "";
+        boolean validHeader = false;
 
-        try (FileInputStream stream = new FileInputStream(file)) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
             // Read the first 10 header info from the media file
-            stream.read(headerInfo, 0, headerInfo.length);
-
-            // Get the first three bytes
-            identifier = new String(headerInfo, 0, 3, ENCODING_ISO_8859_1);
+            validHeader = TagLoader.readFully(channel, header, 0) == HEADER_SIZE
+                    && ID3Probe.isValidHeader(header);
         } catch (IOException ex) {
         	IOException exception;
         	
-        	if(ex instanceof FileNotFoundException) {
+        	if(ex instanceof NoSuchFileException) {
         		exception = new FileNotFoundException("File not found");
         	} else {
         		exception = new IOException("Unable to read media.");
@@ -136,124 +190,395 @@ public class ID3Metadata {
         /**
          * If current tag is valid ID3 tag read its header information.
          */
-        if (identifier.equals(ID3_TAG_IDENTIFIER)) {
-            id3 = new ID3Metadata(file);
-            
-            // 4th byte contains the major version information
-            id3.majorVersion = headerInfo[3];
+        if (validHeader) {
+            id3 = fromHeader(file, header);
+        }
+        
+        return id3;
+    }
+    
+    
+    /**
+     * Creates a new instance of ID3Metadata from the 10 bytes of a valid ID3 
+     * header.
+     * @param file Media file containing the header.
+     * @param header Buffer containing the first 10 bytes of the media file at
+     * position 0. It is not modified and not retained.
+     * @return Instance of ID3Metadata.
+     */
+    static ID3Metadata fromHeader(File file, ByteBuffer header) {
+        ID3Metadata id3 = new ID3Metadata(file);
+        
+        // 4th byte contains the major version information
+        id3.majorVersion = header.get(3);
 
-            // 5th byte contains the minor version information
-            id3.minorVersion = headerInfo[4];
+        // 5th byte contains the minor version information
+        id3.minorVersion = header.get(4);
 
-            // 6th byte contains the flag informations
-            int flag = headerInfo[5];
-            id3.flag = headerInfo[5];
+        // 6th byte contains the flag informations
+        int flag = header.get(5);
+        id3.flag = header.get(5);
 
-            // Set various flag informations
-            id3.unsynchronizationSet= ((flag & FLAG_UNSYNCRONIZATION) == FLAG_UNSYNCRONIZATION);
-            id3.extendedHeaderAdded = ((flag & FLAG_EXTENDED_HEADER ) == FLAG_EXTENDED_HEADER );
-            id3.experimentalTag     = ((flag & FLAG_EXPERIMENTAL    ) == FLAG_EXPERIMENTAL	  );
+        // Set various flag informations
+        id3.unsynchronizationSet= ((flag & FLAG_UNSYNCRONIZATION) == FLAG_UNSYNCRONIZATION);
+        id3.extendedHeaderAdded = ((flag & FLAG_EXTENDED_HEADER ) == FLAG_EXTENDED_HEADER );
+        id3.experimentalTag     = ((flag & FLAG_EXPERIMENTAL    ) == FLAG_EXPERIMENTAL	  );
 
-            /**
-             * Reads the size of the id3 tag Size is defined by 4 bytes. The
-             * last 4 bytes of an id3 header contains the size of the total tag.
-             * The first bit of each bit is set to 0 and is ignored. Hence the
-             * total bits used is 28 bits. Sizes must be calculated accordingly.
-             */
-            id3.size = unpackInteger(Arrays.copyOfRange(headerInfo, 6, 10));
-            
-            // Read extended header if extended header flag is set
-            if(id3.extendedHeaderAdded)
-                id3.readExtendedHeader();
-        }
+        /**
+         * Reads the size of the id3 tag Size is defined by 4 bytes. The
+         * last 4 bytes of an id3 header contains the size of the total tag.
+         * The first bit of each bit is set to 0 and is ignored. Hence the
+         * total bits used is 28 bits. Sizes must be calculated accordingly.
+         */
+        id3.size = unpackInteger(header, 6);
+        
+        // Read extended header if extended header flag is set
+        if(id3.extendedHeaderAdded)
+            id3.readExtendedHeader();
         
         return id3;
     }
     
+    
+    /**
+     * Parses the media file for a valid ID3 tag without blocking the calling 
+     * thread. The header and the tag are read with an asynchronous channel, 
+     * see <code>AsyncTagReader</code> to control the number of concurrent reads.
+     * 
+     * @param path File which is to be parsed for valid ID3 meta-data.
+     * @return Future completed with an instance of <code>ID3Metadata</code> 
+     * with all frames loaded if the file contains valid ID3 tag, otherwise 
+     * with null.
+     * @see parseMedia(File)
+     */
+    public static CompletableFuture<ID3Metadata> parseAsync(Path path) {
+        return AsyncTagReader.getDefault().parseAsync(path);
+    }
+    
     /**
-     * Gets, all frames associated with the current ID3Metadata.
+     * Gets, all frames associated with the current ID3Metadata. Frames are 
+     * created from the table of contents of the tag, their data is decoded 
+     * only when it is accessed.
      * @return An array of Frames associated with the current frame.
      */
     public Frame[] getAllFrames() throws IOException {
         Frame[] allFrames;
         
         /** 
-         * If list of frames have already been parsed.
+         * If list of frames have not been parsed yet.
          */
-        if(frameList.size() >= 1) {
-            allFrames = new Frame[frameList.size()];
-            allFrames = frameList.toArray(allFrames);
+        if(!framesLoaded) {
+            FrameTable table = getFrameTable();
+            
+            if(table != null) {
+                ArrayList<Frame> tagFrames = new ArrayList<>(table.size());
+                for(int i = 0; i < table.size(); i++) {
+                    tagFrames.add(table.get(i));
+                }
+                
+                // Frames of the tag come before any frame added meanwhile
+                purgeRemovedFrames();
+                frameList.addAll(0, tagFrames);
+                
+                frameIndex.clear();
+                for(Frame frame : frameList) {
+                    frameIndex.computeIfAbsent(frame.getFrameID(), (id) -> new ArrayList<>(1)).add(frame);
+                }
+            }
             
-            return allFrames;
+            framesLoaded = true;
         }
         
-        try (FileInputStream stream = new FileInputStream(file)) {
-
-            /* 11 byte of the ID3 meta data */
-            int index = HEADER_SIZE;
+        purgeRemovedFrames();
+        
+        // Convert the list of frames to array type.
+        allFrames = new Frame[frameList.size()];
+        allFrames = frameList.toArray(allFrames);
+        
+        return allFrames;
+    }
+    
+    
+    /**
+     * Gets, the first frame with the given frame ID. Only the requested frame is 
+     * created and decoded, other frames of the tag are left untouched.
+     * @param frameID Unique frame ID.
+     * @return Frame with the given frame ID or null if the tag does not contain
+     * such frame.
+     * @throws IOException
+     */
+    public Frame getFrame(String frameID) throws IOException {
+        Frame[] frames = getFrames(frameID);
+        
+        return (frames.length > 0) ? frames[0] : null;
+    }
+    
+    
+    /**
+     * Gets, all frames with the given frame ID, in the order they appear in the 
+     * tag. Only the requested frames are created and decoded.
+     * @param frameID Unique frame ID.
+     * @return An array of Frames with the given frame ID, empty if there is no 
+     * such frame.
+     * @throws IOException
+     */
+    public Frame[] getFrames(String frameID) throws IOException {
+        ArrayList<Frame> frames = new ArrayList<>();
+        int frameCode = frameCode(frameID);
+        
+        if(!framesLoaded) {
+            FrameTable table = getFrameTable();
             
-            // Skip the first 10 header bytes of the ID3 meta data
-            stream.skip(HEADER_SIZE);
-
-            while (index < size) {
-                /**
-                 * Each ID3 frame contains a 10 byte header.
-                 * First 4 bytes represents unique ID of the frame.
-                 * Next  4 bytes represents the size of frame data.
-                 * Last  2 bytes represents the flags used in the frame.
-                 */
-                byte[] header   = new byte[HEADER_SIZE];
+            if(table != null) {
+                int index = table.indexOf(frameCode, 0);
+                while(index >= 0) {
+                    frames.add(table.get(index));
+                    index = table.indexOf(frameCode, index + 1);
+                }
+            }
+        }
+        
+        // Frames in the list, or added before the tag was loaded
+        ArrayList<Frame> indexed = frameIndex.get(frameID);
+        if(indexed != null)
+            frames.addAll(indexed);
+        
+        return frames.toArray(new Frame[frames.size()]);
+    }
+    
+    
+    /**
+     * Gets, the first frame of each of the given frame IDs. If the tag has not 
+     * been loaded yet, only the frame headers are read from the media file; 
+     * data of other frames is skipped without reading it and scanning stops 
+     * as soon as all requested frames have been found.
+     * <br>
+     * Frames read this way are not added to the list of frames of the current
+     * ID3Metadata. Use <code>replaceFrame()</code> to save changes made to them.
+     * 
+     * @param frameIDs Unique IDs of the frames to be fetched.
+     * @return Map of frame ID to frame, in the order the frames appear in the 
+     * tag. Frame IDs not present in the tag are not contained in the map.
+     * @throws IOException
+     */
+    public Map<String, Frame> getFrames(Set<String> frameIDs) throws IOException {
+        LinkedHashMap<String, Frame> frames = new LinkedHashMap<>();
+        
+        if(frameIDs.isEmpty())
+            return frames;
+        
+        // Tag already in memory, no need to touch the media file
+        if(framesLoaded || frameTable != null) {
+            for(String frameID : frameIDs) {
+                Frame frame = getFrame(frameID);
+                
+                if(frame != null)
+                    frames.put(frameID, frame);
+            }
+            
+            return frames;
+        }
+        
+        if(size <= 0)
+            return frames;
+        
+        // Packed identifiers of the requested frames
+        String[] requestedIDs   = frameIDs.toArray(new String[frameIDs.size()]);
+        int[] requestedCodes    = new int[requestedIDs.length];
+        int remaining           = 0;
+        for(int i = 0; i < requestedIDs.length; i++) {
+            requestedCodes[i] = frameCode(requestedIDs[i]);
+            
+            // Invalid frame IDs can never be found
+            if(requestedCodes[i] != 0)
+                remaining++;
+        }
+        
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header   = ParseContext.get().header();
+            long position       = HEADER_SIZE;
+            long end            = (long) HEADER_SIZE + size;
+            
+            while (end - position >= HEADER_SIZE && remaining > 0) {
+                header.clear();
+                if(TagLoader.readFully(channel, header, position) < HEADER_SIZE)
+                    break;
+                
+                // Rest of the tag is padding
+                if(header.get(0) == 0)
+                    break;
+                
+                int frameCode   = header.getInt(0);
+                int dataSize    = header.getInt(4);
                 
-                // Read header information from the stream
-                stream.read(header, 0, header.length);
+                position += HEADER_SIZE;
                 
-                // Skip the extra padding 
-                if(header[0] == 0) {
-                    index += HEADER_SIZE;
-                    continue;
+                // Corrupt frame size, stop parsing
+                if(dataSize < 0 || dataSize > end - position)
+                    break;
+                
+                // Read only the requested frames, seek over the others
+                int request = indexOf(requestedCodes, frameCode);
+                if(request >= 0) {
+                    ByteBuffer data = ByteBuffer.allocate(dataSize);
+                    TagLoader.readFully(channel, data, position);
+                    data.flip();
+                    
+                    Frame frame = FrameCodecRegistry.decode(frameCode, data.asReadOnlyBuffer());
+                    frame.setFlags(header.get(8) & 0xff, header.get(9) & 0xff);
+                    
+                    // Tag has not been loaded, the version is unknown
+                    frame.setSource(position, null);
+                    
+                    frames.put(requestedIDs[request], frame);
+                    
+                    // Only the first frame of each ID is fetched
+                    requestedCodes[request] = 0;
+                    remaining--;
                 }
                 
-                String frameID	= getString(header, 0, 4, ENCODING_ISO_8859_1);
-                int dataSize    = getInteger(header, 4);
-                int flag1       = header[8];
-                int flag2       = header[9];
+                position += dataSize;
+            }
+        }
+        
+        return frames;
+    }
+    
+    
+    /**
+     * Copies the binary payload of the first frame with the given frame ID from 
+     * the media file to the target, without reading the payload into memory.
+     * The payload of an APIC frame is the image, of a GEOB frame the 
+     * encapsulated object and of a PRIV frame the private data. Other frames 
+     * are copied as a whole. 
+     * <br>
+     * Only the frame headers and text fields are read, the payload is 
+     * transferred by the file system. The frame is looked up in the tag as it 
+     * is stored in the media file, changes not yet packed are not seen.
+     * 
+     * @param frameID Unique ID of the frame.
+     * @param target Blocking channel receiving the payload.
+     * @return Number of bytes transferred or -1 if there is no such frame.
+     * @throws IOException
+     */
+    public long transferFramePayload(String frameID, WritableByteChannel target) throws IOException {
+        int frameCode = frameCode(frameID);
+        
+        if(size <= 0 || frameCode == 0)
+            return -1;
+        
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header   = ParseContext.get().header();
+            long position       = HEADER_SIZE;
+            long end            = (long) HEADER_SIZE + size;
+            
+            while (end - position >= HEADER_SIZE) {
+                header.clear();
+                if(TagLoader.readFully(channel, header, position) < HEADER_SIZE)
+                    break;
+                
+                // Rest of the tag is padding
+                if(header.get(0) == 0)
+                    break;
                 
-                byte[] data     = new byte[dataSize];
+                int dataSize = header.getInt(4);
                 
-                // Move the current reader index to data
-                index += HEADER_SIZE;
+                position += HEADER_SIZE;
                 
-                // Read the data of current frame
-                stream.read(data, 0, data.length);
+                // Corrupt frame size, stop parsing
+                if(dataSize < 0 || dataSize > end - position)
+                    break;
                 
-                // Move the current reader index to next frame
-                index += dataSize;
+                if(header.getInt(0) == frameCode)
+                    return FramePayload.transfer(channel, frameCode, position, dataSize, target);
                 
-                /**
-                 * Create a new instance of Frame, add with the frames list
-                 */
-                Frame newFrame;
-                if(frameID.startsWith("T") || frameID.startsWith("W")) {
-                	newFrame = new TextFrame(frameID, dataSize, data);
-                } else if (frameID.equals("APIC")) {
-                	newFrame = new ImageFrame(dataSize, data, true);
-                } else if (frameID.contains("COMM")) {
-                	newFrame = new CommentFrame(frameID, dataSize, data);
-                } else {
-                	newFrame = new Frame(frameID, dataSize, data);
-                }
+                position += dataSize;
+            }
+        }
+        
+        return -1;
+    }
+    
+    
+    /**
+     * Copies the binary payload of the first frame with the given frame ID from 
+     * the media file to the stream, without reading the whole payload into memory.
+     * 
+     * @param frameID Unique ID of the frame.
+     * @param out Stream receiving the payload.
+     * @return Number of bytes transferred or -1 if there is no such frame.
+     * @throws IOException
+     * @see transferFramePayload(String, WritableByteChannel)
+     */
+    public long transferFramePayload(String frameID, OutputStream out) throws IOException {
+        return transferFramePayload(frameID, Channels.newChannel(out));
+    }
+    
+    
+    /**
+     * Gets, the index of a packed frame identifier in the array.
+     * @return Index of the frame identifier or -1 if not found.
+     */
+    private static int indexOf(int[] frameCodes, int frameCode) {
+        for(int i = 0; i < frameCodes.length; i++) {
+            if(frameCodes[i] == frameCode)
+                return i;
+        }
+        
+        return -1;
+    }
+    
+    
+    /**
+     * Sets, the tag data read by other means than <code>getFrameTable()</code>.
+     * @param tag Buffer containing the tag data following the 10 byte header.
+     */
+    void setTag(ByteBuffer tag) {
+        tagVersion  = TagVersion.of(file.toPath(), tag);
+        frameTable  = FrameTable.scan(tag, tagVersion);
+        padding     = frameTable.getPadding();
+    }
+    
+    
+    /**
+     * Gets, the table of contents of the tag. The entire tag region is read
+     * with a single I/O the first time and only the frame headers are parsed.
+     * @return Table of contents or null if the media has no ID3 tag.
+     * @throws IOException
+     */
+    FrameTable getFrameTable() throws IOException {
+        if(frameTable == null && size > 0) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer tag = TagLoader.load(channel, HEADER_SIZE, size);
                 
-                newFrame.setFlags(flag1, flag2);
-                frameList.add(newFrame);
+                tagVersion = TagVersion.of(file.toPath(), tag);
+                frameTable = FrameTable.scan(tag, tagVersion);
             }
             
+            padding = frameTable.getPadding();
         }
         
-        // Convert the list of frames to array type.
-        allFrames = new Frame[frameList.size()];
-        allFrames = frameList.toArray(allFrames);
+        return frameTable;
+    }
+    
+    
+    /**
+     * Scans the tag read into the pooled buffer of the context, unless the 
+     * tag has been read already. The scanned table is not kept by this 
+     * instance: the table and all frames decoded from it share the pooled 
+     * buffer, which the next tag loaded by the calling thread overwrites. 
+     * Callers must copy the values they need before parsing another file.
+     * @param context Parse context of the calling thread.
+     * @return Table of contents or null if the media has no ID3 tag.
+     * @throws IOException
+     */
+    FrameTable scanFrameTable(ParseContext context) throws IOException {
+        if(frameTable != null || size <= 0)
+            return frameTable;
         
-        return allFrames;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return FrameTable.scan(context.load(channel, HEADER_SIZE, size), null);
+        }
     }
     
     
@@ -264,7 +589,7 @@ public class ID3Metadata {
     public void addFrame(Frame frame) {
         // Check null frames
         if(frame != null) {
-            frameList.add(frame);
+            indexFrame(frame);
         }
     }
     
@@ -278,7 +603,7 @@ public class ID3Metadata {
         if(frames != null) {
             for(Frame frame : frames) {
                 if(frame != null) {
-                    this.frameList.add(frame);
+                    indexFrame(frame);
                 }
             }
         }
@@ -286,146 +611,589 @@ public class ID3Metadata {
     
     
     /**
-     * Saves the new updated ID3 meta data to media file.
+     * Saves the new updated ID3 meta data to media file. Only frames modified
+     * since the tag was read are packed again, other frames are written as 
+     * they are stored in memory or copied from the media file. When the tag 
+     * is overwritten in place, frames which have not moved are not written at
+     * all.
      * @throws IOException
      */
     public void pack() throws IOException {
-    	// Pack all frames if exists
-        byte[] frameData = packFrames();
+        // Make sure the frames of the tag are not lost
+        getAllFrames();
+        
+        // Frames are copied from the media file only while it still holds their tag
+        TagVersion stored = storedVersion();
         
         /**
-         * Read original media data.
+         * Find out how each frame is written and how many bytes have to be 
+         * encoded for it.
          */
-        byte mediaData[] = null;
-        try(FileInputStream stream = new FileInputStream(file)) {
-            int mediaSize   = (int) file.length();
-            int indexToRead = 0;
-            
-			// If it contains id3 meta data then skip it
-            if(this.size > 0) {
-            	indexToRead = this.size + HEADER_SIZE;
-            	stream.skip(indexToRead);
+        int frameCount = frameList.size();
+        PackedFrame[] packedFrames = new PackedFrame[frameCount];
+        long position   = HEADER_SIZE;
+        int encodedSize = HEADER_SIZE;
+        for(int i = 0; i < frameCount; i++) {
+            Frame frame = frameList.get(i);
+            PackedFrame packed = new PackedFrame(frame);
+            boolean inFile = stored != null && frame.getSourceVersion() == stored;
+            
+            /**
+             * Images attached from a file or stream are not read into memory,
+             * only the frame header and text fields are packed.
+             */
+            if(frame instanceof ImageFrame && ((ImageFrame) frame).getImageSource() != null) {
+                packed.image    = ((ImageFrame) frame).getImageSource();
+                packed.encoded  = ((ImageFrame) frame).headSize();
+                packed.size     = packed.encoded - HEADER_SIZE + packed.image.length();
+            } else if(!frame.isModified() && (packed.payload = frame.getStoredPayload()) != null) {
+                // Unmodified data held in memory is written after a new header
+                packed.source   = inFile ? frame.getSourcePosition() : -1;
+                packed.encoded  = HEADER_SIZE;
+                packed.size     = frame.getSize();
+            } else if(!frame.isModified() && inFile) {
+                // Released data is copied from the media file, header included
+                packed.source   = frame.getSourcePosition();
+                packed.size     = frame.getSize();
+            } else {
+                // Image written into the tag, which has to be read before the tag is overwritten
+                if(frame instanceof ImageFrame)
+                    ((ImageFrame) frame).loadStoredImage();
+                
+                packed.encoded  = frame.serializedSize();
+                packed.size     = packed.encoded - HEADER_SIZE;
             }
             
-			mediaSize -= indexToRead;
-
-            mediaData = new byte[mediaSize];
+            packed.position = position + HEADER_SIZE;
+            packedFrames[i] = packed;
             
-            stream.read(mediaData, 0, mediaData.length);
-        } catch(IOException e) {
-        	IOException exception = new IOException("Unable to read media song data.");
-        	exception.setStackTrace(e.getStackTrace());
-        	
-        	throw exception;
+            position    += HEADER_SIZE + packed.size;
+            encodedSize += packed.encoded;
+        }
+        
+        if(position - HEADER_SIZE > Integer.MAX_VALUE)
+            throw new IOException("ID3 tag is too large.");
+        
+        int framesSize = (int) (position - HEADER_SIZE);
+        
+        /**
+         * If the new frames fit inside the existing tag, overwrite only the tag
+         * region and fill the remaining space with padding.
+         */
+        boolean inPlace = this.size > 0 && framesSize <= this.size;
+        int newPadding  = inPlace ? this.size - framesSize : paddingPolicy.getPadding(framesSize);
+        
+        /**
+         * Encode the ID3 header and all new frame bytes into a single buffer
+         */
+        ByteBuffer encoded = ByteBuffer.allocate(encodedSize);
+        packHeader(encoded, framesSize + newPadding);
+        
+        for(PackedFrame packed : packedFrames) {
+            if(packed.encoded == 0)
+                continue;
+            
+            int start = encoded.position();
+            
+            if(packed.image != null)
+                ((ImageFrame) packed.frame).packHead(encoded);
+            else if(packed.payload != null)
+                packed.frame.packHeader(encoded, packed.size);
+            else
+                packed.frame.packInto(encoded);
+            
+            packed.bytes = slice(encoded, start, encoded.position());
+        }
+        
+        ByteBuffer header = slice(encoded, 0, HEADER_SIZE);
+        
+        if(inPlace) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                prepareInPlace(channel, packedFrames);
+                writeTag(channel, channel, header, packedFrames, framesSize, newPadding);
+                
+                tagVersion = TagVersion.read(file.toPath(), channel, this.size);
+            } catch (IOException e) {
+            	IOException exception = new IOException("Unable to write media file data to disk.");
+            	exception.setStackTrace(e.getStackTrace());
+            	
+            	throw exception;
+            }
+            
+            this.padding = newPadding;
+            rebindFrames(packedFrames);
+            return;
         }
         
         /**
          * Final write ID3 tag with media song data.
          */
-        try (FileOutputStream stream = new FileOutputStream(file)) {
-            stream.write(frameData);
-            
-            if (mediaData != null)
-                stream.write(mediaData);
-        } catch (IOException e) {
-        	IOException exception = new IOException("Unable to write media file data to disk.");
-        	exception.setStackTrace(e.getStackTrace());
-        	
-        	throw exception;
+        rewrite((in, out) -> writeTag(in, out, header, packedFrames, framesSize, newPadding));
+        
+        this.size       = framesSize + newPadding;
+        this.padding    = newPadding;
+        
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            tagVersion = TagVersion.read(file.toPath(), channel, this.size);
+        }
+        
+        rebindFrames(packedFrames);
+    }
+    
+    
+    /**
+     * Gets, the version of the tag whose frames may be copied from the media 
+     * file or left in place. Only frames read from or last written to this
+     * tag are reused, and only if no one has changed the media file since.
+     * @return Version of the tag in the media file or null if no frame bytes
+     * stored in the media file can be reused.
+     * @throws IOException
+     */
+    private TagVersion storedVersion() throws IOException {
+        if(this.size <= 0 || tagVersion == null)
+            return null;
+        
+        boolean reused = false;
+        for(Frame frame : frameList) {
+            if(!frame.isModified() && frame.getSourceVersion() == tagVersion) {
+                reused = true;
+                break;
+            }
+        }
+        
+        if(!reused)
+            return null;
+        
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return (tagVersion.load(channel) != null) ? tagVersion : null;
         }
     }
     
     
     /**
-     * Converts all frame data to binary format so that they can be 
-     * written to file. It returns an array of byte containing ID3 header
-     * information and frame data.
-     * @return Returns an array of byte.
+     * Gets, the number of bytes written by <code>packInto()</code>, i.e. the 
+     * size of the ID3 tag including its header and padding. The padding is 
+     * chosen the same way as by <code>pack()</code>.
+     * @return Size of the binary ID3 tag.
+     * @throws IOException If the frames of the tag cannot be loaded.
      */
-    private byte[] packFrames() {
-        /**
-         * Calculate the total size of frame
-         */
-        int totalFrameSize = 0;
+    public int serializedSize() throws IOException {
+        int framesSize = getFramesSize();
+        
+        return HEADER_SIZE + framesSize + getNewPadding(framesSize);
+    }
+    
+    
+    /**
+     * Converts the ID3 header, all frames and the padding to binary format at 
+     * the position of the buffer, without allocating intermediate arrays. The 
+     * media file is not modified. Exactly <code>serializedSize()</code> bytes 
+     * are written, so that a whole tag can be packed into one reusable heap or
+     * direct buffer.
+     * @param out Buffer receiving the ID3 tag.
+     * @throws IOException If the frames of the tag cannot be loaded.
+     * @throws java.nio.BufferOverflowException If the buffer has not enough room
+     * left for the tag.
+     */
+    public void packInto(ByteBuffer out) throws IOException {
+        int framesSize  = getFramesSize();
+        int padding     = getNewPadding(framesSize);
+        
+        packHeader(out, framesSize + padding);
+        
         for(Frame frame : frameList) {
-            // Frame data size + header size
-            totalFrameSize += frame.getSize() + HEADER_SIZE;
+            frame.packInto(out);
         }
         
+        // Fill the padding with zeros
+        for(; padding >= Long.BYTES; padding -= Long.BYTES)
+            out.putLong(0);
+        for(; padding > 0; padding--)
+            out.put((byte) 0);
+    }
+    
+    
+    /**
+     * Gets, the total size of all frames when packed.
+     */
+    private int getFramesSize() throws IOException {
+        getAllFrames();
+        
+        long framesSize = 0;
+        for(Frame frame : frameList) {
+            framesSize += frame.serializedSize();
+        }
+        
+        if(framesSize > Integer.MAX_VALUE)
+            throw new IOException("ID3 tag is too large.");
+        
+        return (int) framesSize;
+    }
+    
+    
+    /**
+     * Gets, the padding following the frames of the given size. Padding left 
+     * in the existing tag is kept, new tags are padded by the padding policy.
+     */
+    private int getNewPadding(int framesSize) {
+        return (this.size > 0 && framesSize <= this.size) ? this.size - framesSize 
+                                                          : paddingPolicy.getPadding(framesSize);
+    }
+    
+    
+    /**
+     * Writes the 10 byte ID3 header at the position of the buffer.
+     * @param out Buffer receiving the header.
+     * @param tagSize Size of the tag excluding the header.
+     */
+    private void packHeader(ByteBuffer out, int tagSize) {
+        out.put((byte) 'I').put((byte) 'D').put((byte) '3');
+        out.put((byte) majorVersion);
+        out.put((byte) minorVersion);
+        out.put((byte) flag);
+        
+        /**
+         * Encode the new ID3 size
+         */
+        putPackedInteger(out, tagSize);
+    }
+    
+    
+    /**
+     * Gets, a view of the given region of the buffer.
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        ByteBuffer region = buffer.duplicate();
+        region.limit(end);
+        region.position(start);
+        
+        return region.slice();
+    }
+    
+    
+    /**
+     * Frame as it is written to the media file by <code>pack()</code>.
+     */
+    private static final class PackedFrame {
+        final Frame frame;
+        
         /**
-         * Create a valid ID3 header tag
+         * Frame header followed by the frame data, or only the header if the 
+         * data is written from elsewhere. Null if the frame is copied from the
+         * media file as a whole.
          */
-        byte frameData[] = new byte[totalFrameSize + HEADER_SIZE];
+        ByteBuffer bytes;
         
-        System.arraycopy(ID3_TAG_IDENTIFIER.getBytes(), 0, frameData, 0, 3);
-        frameData[3] = (byte) majorVersion;
-        frameData[4] = (byte) minorVersion;
-        frameData[5] = (byte) flag;
+        /**
+         * Number of bytes encoded for the frame.
+         */
+        int encoded;
         
+        /**
+         * Size of the frame data.
+         */
+        int size;
         
         /**
-         * Copy all frame objects to binary frame data
+         * Data of an unmodified frame held in memory.
          */
-        int index = HEADER_SIZE;
-        for(Frame frame : frameList) {
-            byte[] data = frame.pack();
-            System.arraycopy(data, 0, frameData, index, data.length);
-            
-            index += data.length;
-        }
+        ByteBuffer payload;
         
         /**
-         * Encode the new ID3 size
+         * Image streamed after the header and text fields.
+         */
+        ImageSource image;
+        
+        /**
+         * Position of the data of an unmodified frame in the media file, -1 if
+         * the frame has been packed again or the media file no longer holds 
+         * the tag the frame has been read from.
+         */
+        long source = -1;
+        
+        /**
+         * Position of the frame data in the new tag.
          */
-        int newID3Size 	= index - HEADER_SIZE;
-        byte[] sizeData = packInteger(newID3Size);
-        frameData[6] 	= sizeData[0];
-        frameData[7] 	= sizeData[1];
-        frameData[8] 	= sizeData[2];
-        frameData[9] 	= sizeData[3];
+        long position;
         
-        return frameData;
+        /**
+         * True if the frame is already stored at its position in the media file.
+         */
+        boolean unchanged;
+        
+        
+        PackedFrame(Frame frame) {
+            this.frame = frame;
+        }
     }
     
     
     /**
-     * Removes the ID3 tag from media song.
+     * Prepares the frames for being written over the tag they are read from. 
+     * Unmodified frames which stay where they are need not be written. The 
+     * data of moved frames is read before the tag is overwritten, unless it is
+     * held on the heap.
+     * @param channel Channel of the media file.
+     * @param packedFrames Frames to be written.
+     */
+    private static void prepareInPlace(FileChannel channel, PackedFrame[] packedFrames) throws IOException {
+        for(PackedFrame packed : packedFrames) {
+            if(packed.source < 0)
+                continue;
+            
+            if(packed.source == packed.position) {
+                packed.unchanged = true;
+                continue;
+            }
+            
+            // Heap data is not affected by writes to the media file
+            if(packed.payload != null && !packed.payload.isDirect())
+                continue;
+            
+            ByteBuffer bytes = ByteBuffer.allocate(HEADER_SIZE + packed.size);
+            
+            packed.frame.packHeader(bytes, packed.size);
+            
+            if(packed.payload != null) {
+                bytes.put(packed.payload.duplicate());
+            } else if(TagLoader.readFully(channel, bytes, packed.source) < packed.size) {
+                throw new IOException("Unable to read frame data.");
+            }
+            
+            bytes.flip();
+            
+            packed.bytes    = bytes;
+            packed.payload  = null;
+        }
+    }
+    
+    
+    /**
+     * Points all frames to their data inside the newly written tag, whose 
+     * version is <code>tagVersion</code>. Frames packed again are pointed to 
+     * their packed data. Streamed images are not read back, they are loaded 
+     * from the media file when requested. All frames are marked as unmodified.
+     * @param packedFrames Frames as written to the media file.
+     */
+    private void rebindFrames(PackedFrame[] packedFrames) {
+        for(PackedFrame packed : packedFrames) {
+            Frame frame = packed.frame;
+            
+            if(packed.image != null) {
+                ((ImageFrame) frame).setStoredImage();
+            } else if(packed.bytes != null && packed.payload == null) {
+                ByteBuffer data = packed.bytes.duplicate();
+                data.position(HEADER_SIZE);
+                
+                frame.attach(data);
+            }
+            
+            frame.setSource(packed.position, tagVersion);
+        }
+    }
+    
+    
+    /**
+     * Writes the ID3 header, all frames and the trailing zero padding at the 
+     * beginning of the channel. Consecutive regions held in memory are written
+     * together by a single gathering write. Unmodified frames released from 
+     * memory and streamed images are copied by the file system, so that only 
+     * newly encoded bytes are copied in memory. Frames are transferred from the
+     * original media file only if <code>pack()</code> has found that the file 
+     * still holds the tag they have been read from, otherwise their source is 
+     * -1 and they are packed from memory.
+     * @param in Channel of the original media file.
+     * @param out Channel of the file being written.
+     * @param header Binary ID3 header.
+     * @param packedFrames Frames to be written.
+     * @param framesSize Total size of all frames including streamed images.
+     * @param padding Number of padding bytes to be added after the frames.
      * @throws IOException
      */
-    public void removeID3Tag() throws IOException {
+    private static void writeTag(FileChannel in, FileChannel out, ByteBuffer header, PackedFrame[] packedFrames, 
+            int framesSize, int padding) throws IOException {
+        ArrayList<ByteBuffer> segments = new ArrayList<>(packedFrames.length * 2 + 2);
+        long start = 0;
+        
+        segments.add(header.duplicate());
+        
         /**
-         * Read original media data
+         * Copy all frame objects to the file
          */
-        byte mediaData[] = null;
-        try(FileInputStream stream = new FileInputStream(file)) {
-            int mediaSize   = (int) file.length();
-            int indexToRead = 0;
-            
-			// If it contains id3 meta data then skip it
-            if(this.size > 0) {
-            	indexToRead = this.size + HEADER_SIZE;
-            	stream.skip(indexToRead);
+        for(PackedFrame packed : packedFrames) {
+            long end = packed.position + packed.size;
+            
+            if(packed.unchanged) {
+                gather(out, start, segments);
+                start = end;
+                continue;
             }
             
-			mediaSize -= indexToRead;
-
-            mediaData = new byte[mediaSize];
+            if(packed.bytes == null) {
+                if(packed.source < 0)
+                    throw new IOException("Unable to copy frame data, the frame is not stored in the media file.");
+                
+                gather(out, start, segments);
+                transfer(in, packed.source - HEADER_SIZE, HEADER_SIZE + packed.size, out, packed.position - HEADER_SIZE);
+                start = end;
+                continue;
+            }
             
-            stream.read(mediaData, 0, mediaData.length);
-        } catch(IOException e) {
-        	IOException exception = new IOException("Unable to read media song data.");
-        	exception.setStackTrace(e.getStackTrace());
-        	
-        	throw exception;
+            segments.add(packed.bytes.duplicate());
+            
+            if(packed.payload != null) {
+                segments.add(packed.payload.duplicate());
+            } else if(packed.image != null) {
+                start = gather(out, start, segments);
+                packed.image.transferTo(out, start);
+                start = end;
+            }
+        }
+        
+        /**
+         * Fill the padding with zeros
+         */
+        ByteBuffer zeros = ByteBuffer.allocate(Math.min(padding, 8192));
+        for(int remaining = padding; remaining > 0; remaining -= zeros.capacity()) {
+            ByteBuffer chunk = zeros.duplicate();
+            chunk.limit(Math.min(remaining, zeros.capacity()));
+            
+            segments.add(chunk);
+        }
+        
+        gather(out, start, segments);
+    }
+    
+    
+    /**
+     * Writes the buffers one after another at the given position of the channel
+     * using gathering writes, and clears the list of buffers.
+     * @return Position following the written bytes.
+     */
+    private static long gather(FileChannel out, long position, ArrayList<ByteBuffer> buffers) throws IOException {
+        if(buffers.isEmpty())
+            return position;
+        
+        ByteBuffer[] sources = buffers.toArray(new ByteBuffer[buffers.size()]);
+        int first = 0;
+        
+        out.position(position);
+        while(first < sources.length) {
+            position += out.write(sources, first, sources.length - first);
+            
+            // Skip the buffers written completely
+            while(first < sources.length && !sources[first].hasRemaining())
+                first++;
+        }
+        
+        buffers.clear();
+        
+        return position;
+    }
+    
+    
+    /**
+     * Lets the file system copy a region of the original media file to the 
+     * given position of the file being written.
+     */
+    private static void transfer(FileChannel in, long from, long count, FileChannel out, long position) 
+            throws IOException {
+        long transferred = 0;
+        
+        out.position(position);
+        while(transferred < count) {
+            long n = in.transferTo(from + transferred, count - transferred, out);
+            
+            if(n <= 0)
+                throw new IOException("Unable to read frame data.");
+            
+            transferred += n;
+        }
+    }
+    
+    
+    /**
+     * Writes the tag at the beginning of a file being written.
+     */
+    @FunctionalInterface
+    private interface TagWriter {
+        void write(FileChannel in, FileChannel out) throws IOException;
+    }
+    
+    
+    /**
+     * Removes the ID3 tag from media song.
+     * @throws IOException
+     */
+    public void removeID3Tag() throws IOException {
+        // Nothing to remove
+        if(this.size <= 0)
+            return;
+        
+        // Images written into the tag are lost with it
+        for(Frame frame : frameList) {
+            if(frame instanceof ImageFrame)
+                ((ImageFrame) frame).loadStoredImage();
         }
         
         /**
          * Write media song data.
          */
-        try (FileOutputStream stream = new FileOutputStream(file)) {
-            if (mediaData != null)
-                stream.write(mediaData);
+        rewrite((in, out) -> { });
+        
+        this.size       = 0;
+        this.padding    = 0;
+        this.tagVersion = null;
+    }
+    
+    
+    /**
+     * Rewrites the media file with the given tag data followed by the original
+     * media song data. The media data is streamed from the original file into 
+     * a temporary file in the same directory, which then atomically replaces 
+     * the original file. Only the tag data is ever held in memory.
+     * @param tagWriter Writes the binary ID3 tag to be placed before the media 
+     * data, given the original and the new file. Nothing to remove the tag.
+     * @throws IOException
+     */
+    private void rewrite(TagWriter tagWriter) throws IOException {
+        Path source     = file.toPath().toAbsolutePath();
+        Path temp       = Files.createTempFile(source.getParent(), source.getFileName().toString(), ".tmp");
+        
+        // If it contains id3 meta data then skip it
+        long mediaStart = (this.size > 0) ? (long) this.size + HEADER_SIZE : 0;
+        
+        try {
+            try (FileChannel in  = FileChannel.open(source, StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                tagWriter.write(in, out);
+                out.position(out.size());
+                
+                // Let the kernel copy media song data to the new file
+                long position   = mediaStart;
+                long end        = in.size();
+                while(position < end) {
+                    long transferred = in.transferTo(position, end - position, out);
+                    
+                    if(transferred <= 0)
+                        throw new IOException("Unable to read media song data.");
+                    
+                    position += transferred;
+                }
+                
+                out.force(true);
+            }
+            
+            copyPermissions(source, temp);
+            
+            try {
+                Files.move(temp, source, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, source, StandardCopyOption.REPLACE_EXISTING);
+            }
         } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            
         	IOException exception = new IOException("Unable to write media file data to disk.");
         	exception.setStackTrace(e.getStackTrace());
         	
@@ -434,6 +1202,21 @@ public class ID3Metadata {
     }
     
     
+    /**
+     * Copies POSIX permissions of the original media file to its replacement, 
+     * as temporary files are created readable by the owner only.
+     * @param source Original media file.
+     * @param target File replacing the original media file.
+     */
+    private static void copyPermissions(Path source, Path target) throws IOException {
+        try {
+            Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system
+        }
+    }
+    
+    
     /**
      * Replaces an ID3 frame with another ID3 frame.
      * @param toReplace Frame which will be deleted and replaced by other.
@@ -442,8 +1225,10 @@ public class ID3Metadata {
     public void replaceFrame(Frame toReplace, Frame replaceWith) {
         // Null checks
         if(toReplace != null && replaceWith != null) {
-            frameList.remove(toReplace);
-            frameList.add(replaceWith);
+            loadFrames();
+            
+            unindexFrame(toReplace);
+            indexFrame(replaceWith);
         }
     }
     
@@ -459,22 +1244,52 @@ public class ID3Metadata {
     public void replaceFrame(String frameID, Frame frame) {
         // Null checks 
         if(frame != null ) {
-            ArrayList<Frame> framesToRemove = new ArrayList<>();
-            
-            frameList.forEach((f)-> { 
-            	if(f.getFrameID().equals(frameID)) {
-            		framesToRemove.add(f);
-            	}
-            });
+            loadFrames();
             
             // Removes all frame with the given frame ID
-            if(framesToRemove.size() >= 1)
-                frameList.removeAll(framesToRemove);
+            ArrayList<Frame> framesToRemove = frameIndex.remove(frameID);
+            if(framesToRemove != null)
+                removedFrames.addAll(framesToRemove);
             
             // Add the new frame
-            frameList.add(frame);
+            indexFrame(frame);
         }
     }
+    
+    
+    /**
+     * Removes a frame from the ID3 tag. Only the given frame instance is 
+     * removed, other frames with the same frame ID are kept.
+     * @param frame Frame to be removed.
+     * @return True if the frame was removed, false if the tag does not 
+     * contain it.
+     */
+    public boolean removeFrame(Frame frame) {
+        if(frame == null)
+            return false;
+        
+        loadFrames();
+        
+        return unindexFrame(frame);
+    }
+    
+    
+    /**
+     * Removes all frames with the given frame ID from the ID3 tag.
+     * @param frameID Unique frame ID.
+     * @return Number of frames removed.
+     */
+    public int removeFrames(String frameID) {
+        loadFrames();
+        
+        ArrayList<Frame> framesToRemove = frameIndex.remove(frameID);
+        if(framesToRemove == null)
+            return 0;
+        
+        removedFrames.addAll(framesToRemove);
+        
+        return framesToRemove.size();
+    }
 
     
     /**
@@ -485,23 +1300,7 @@ public class ID3Metadata {
      * false.
      */
     public boolean contains(Frame frame) {
-        boolean exists = false;
-        
-        try {
-        	getAllFrames();
-        } catch (IOException e) {
-        	return false;
-        }
-
-		// Check for valid ID3 tag
-		for (Frame f : frameList) {
-			if (f.equals(frame)) {
-				exists = true;
-				break;
-			}
-		}
-        
-        return exists;
+        return (frame != null) && contains(frame.getFrameID());
     }
     
 
@@ -512,23 +1311,77 @@ public class ID3Metadata {
      * false.
      */
     public boolean contains(String frameID) {
-        boolean exists = false;
+        if(frameIndex.containsKey(frameID))
+            return true;
+        
+        if(framesLoaded)
+            return false;
         
         try {
-        	getAllFrames();
+            FrameTable table = getFrameTable();
+            
+        	return (table != null) && table.indexOf(frameCode(frameID), 0) >= 0;
         } catch (IOException e) {
         	return false;
         }
-
-		// Check for valid ID3 tag
-		for (Frame f : frameList) {
-			if (f.getFrameID().equals(frameID)) {
-				exists = true;
-				break;
-			}
-		}
+    }
+    
+    
+    /**
+     * Appends a frame to the list of frames and to its group in the index.
+     */
+    private void indexFrame(Frame frame) {
+        // A removed frame added again moves to the end of the list
+        if(removedFrames.contains(frame))
+            purgeRemovedFrames();
+        
+        frameList.add(frame);
+        frameIndex.computeIfAbsent(frame.getFrameID(), (id) -> new ArrayList<>(1)).add(frame);
+    }
+    
+    
+    /**
+     * Removes a frame instance from the index, it is removed from the list of
+     * frames when the list is compacted.
+     * @return True if the frame was indexed.
+     */
+    private boolean unindexFrame(Frame frame) {
+        ArrayList<Frame> group = frameIndex.get(frame.getFrameID());
+        
+        if(group == null || !group.removeIf((f) -> f == frame))
+            return false;
+        
+        if(group.isEmpty())
+            frameIndex.remove(frame.getFrameID());
+        
+        removedFrames.add(frame);
         
-        return exists;
+        return true;
+    }
+    
+    
+    /**
+     * Removes frames taken out of the index from the list of frames, in a 
+     * single pass over the list.
+     */
+    private void purgeRemovedFrames() {
+        if(!removedFrames.isEmpty()) {
+            frameList.removeIf(removedFrames::contains);
+            removedFrames.clear();
+        }
+    }
+    
+    
+    /**
+     * Loads all frames of the tag before the list of frames is modified, so 
+     * that frames of the tag can be found and replaced.
+     */
+    private void loadFrames() {
+        try {
+            getAllFrames();
+        } catch (IOException e) {
+            // Frames of the tag are loaded again by pack()
+        }
     }
     
     
@@ -566,6 +1419,34 @@ public class ID3Metadata {
         return size;
     }
 
+    /**
+     * Gets, the number of zero padding bytes at the end of the ID3 tag. Padding
+     * allows the tag to grow without rewriting the entire media file.
+     * 
+     * @return Integer containing the size of padding in bytes.
+     */
+    public int getPadding() {
+        return padding;
+    }
+
+    /**
+     * Gets, the padding policy used when the whole media file is rewritten.
+     * @return Current padding policy.
+     */
+    public PaddingPolicy getPaddingPolicy() {
+        return paddingPolicy;
+    }
+
+    /**
+     * Sets, the padding policy used when the tag no longer fits in the existing 
+     * tag and the whole media file has to be rewritten.
+     * @param paddingPolicy Padding policy to be used.
+     * @see PaddingPolicy
+     */
+    public void setPaddingPolicy(PaddingPolicy paddingPolicy) {
+        this.paddingPolicy = (paddingPolicy == null) ? PaddingPolicy.NONE : paddingPolicy;
+    }
+
     /**
      * Gets, the 7-bit flag status of ID3 valid header flag.  
      * @return Returns true if unsynchronization flag is set otherwise false.
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import static com.codeforwin.id3.ID3.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>ID3Probe</code> reads only the 10 byte ID3 header of media files to find
+ * out whether they contain an ID3v2 tag and how large it is, without parsing
+ * the tag. It is meant for scanning large numbers of files before a full parse.
+ * <br>
+ * An instance reuses a single header buffer and must not be shared between
+ * threads. The static methods use one buffer per thread.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ */
+public final class ID3Probe {
+
+    private static final ThreadLocal<ID3Probe> PROBES = ThreadLocal.withInitial(ID3Probe::new);
+
+    /**
+     * Header buffer reused for every file.
+     */
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+
+    /**
+     * <code>Result</code> holds the header information of a probed file.
+     */
+    public static final class Result {
+
+        /**
+         * Result of a file that does not start with a valid ID3v2 header.
+         */
+        public static final Result NO_TAG       = new Result(false, true, 0, 0, 0, 0);
+
+        /**
+         * Result of a file that could not be read.
+         */
+        public static final Result UNREADABLE   = new Result(false, false, 0, 0, 0, 0);
+
+        private final boolean tagPresent;
+        private final boolean readable;
+        private final int majorVersion;
+        private final int minorVersion;
+        private final int flags;
+        private final int tagSize;
+
+        private Result(boolean tagPresent, boolean readable, int majorVersion, int minorVersion, int flags, int tagSize) {
+            this.tagPresent     = tagPresent;
+            this.readable       = readable;
+            this.majorVersion   = majorVersion;
+            this.minorVersion   = minorVersion;
+            this.flags          = flags;
+            this.tagSize        = tagSize;
+        }
+
+        /**
+         * Gets, whether the file starts with a valid ID3v2 tag.
+         * @return True if the file contains an ID3v2 tag.
+         */
+        public boolean isTagPresent() {
+            return tagPresent;
+        }
+
+        /**
+         * Gets, whether the file could be read.
+         * @return False if an I/O error occurred while probing the file.
+         */
+        public boolean isReadable() {
+            return readable;
+        }
+
+        /**
+         * Gets, the major version of the ID3 tag, 0 if there is no tag.
+         * @return Major version of the tag.
+         */
+        public int getMajorVersion() {
+            return majorVersion;
+        }
+
+        /**
+         * Gets, the minor version of the ID3 tag, 0 if there is no tag.
+         * @return Minor version of the tag.
+         */
+        public int getMinorVersion() {
+            return minorVersion;
+        }
+
+        /**
+         * Gets, the ID3 header flags.
+         * @return Header flags.
+         */
+        public int getFlags() {
+            return flags;
+        }
+
+        /**
+         * Gets, the size of the tag excluding the 10 byte header, 0 if there is
+         * no tag.
+         * @return Size of the tag.
+         */
+        public int getTagSize() {
+            return tagSize;
+        }
+
+        /**
+         * Gets, the position in the file where the media data starts, i.e.
+         * after the header, the tag and the optional footer.
+         * @return Offset of the media data in bytes.
+         */
+        public long getAudioOffset() {
+            if(!tagPresent)
+                return 0;
+
+            long offset = (long) HEADER_SIZE + tagSize;
+
+            if((flags & FLAG_FOOTER) == FLAG_FOOTER)
+                offset += HEADER_SIZE;
+
+            return offset;
+        }
+
+        @Override
+        public String toString() {
+            if(!readable)
+                return "UNREADABLE";
+            if(!tagPresent)
+                return "NO_TAG";
+
+            return "ID3v2." + majorVersion + "." + minorVersion + " size=" + tagSize + " flags=" + flags;
+        }
+    }
+
+
+    /**
+     * Probes a single file for an ID3v2 header, using the buffer of the calling
+     * thread.
+     * @param path Media file to be probed.
+     * @return Header information of the file, <code>Result.NO_TAG</code> if it
+     * has no ID3v2 tag.
+     * @throws IOException If the file cannot be read.
+     */
+    public static Result probe(Path path) throws IOException {
+        return PROBES.get().probeFile(path);
+    }
+
+
+    /**
+     * Probes all files for an ID3v2 header. Files that cannot be read give
+     * <code>Result.UNREADABLE</code> instead of failing the whole batch.
+     * @param paths Media files to be probed.
+     * @return Header information of each file, in the order of <code>paths</code>.
+     */
+    public static List<Result> probeAll(Iterable<Path> paths) {
+        ID3Probe probe          = PROBES.get();
+        ArrayList<Result> results = new ArrayList<>();
+
+        for(Path path : paths) {
+            Result result;
+
+            try {
+                result = probe.probeFile(path);
+            } catch (IOException e) {
+                result = Result.UNREADABLE;
+            }
+
+            results.add(result);
+        }
+
+        return results;
+    }
+
+
+    /**
+     * Probes a single file for an ID3v2 header, reusing the buffer of this
+     * instance.
+     * @param path Media file to be probed.
+     * @return Header information of the file, <code>Result.NO_TAG</code> if it
+     * has no ID3v2 tag.
+     * @throws IOException If the file cannot be read.
+     */
+    public Result probeFile(Path path) throws IOException {
+        header.clear();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if(TagLoader.readFully(channel, header, 0) < HEADER_SIZE)
+                return Result.NO_TAG;
+        }
+
+        if(!isValidHeader(header))
+            return Result.NO_TAG;
+
+        return new Result(true, true, header.get(3), header.get(4), header.get(5) & 0xff, unpackInteger(header, 6));
+    }
+
+
+    /**
+     * Checks whether the buffer contains a valid ID3v2 header: the "ID3"
+     * identifier, versions other than 0xff and a size made of 7 bit bytes.
+     * @param header Buffer containing the first 10 bytes of the file at position 0.
+     * @return True if the header is a valid ID3v2 header.
+     */
+    static boolean isValidHeader(ByteBuffer header) {
+        return header.get(0) == 'I' && header.get(1) == 'D' && header.get(2) == '3'
+                && header.get(3) != (byte) 0xff && header.get(4) != (byte) 0xff
+                && (header.get(6) | header.get(7) | header.get(8) | header.get(9)) >= 0;
+    }
+
+}
@@ -17,7 +17,17 @@
 package com.codeforwin.id3;
 
 import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import javax.imageio.ImageIO;
 import static com.codeforwin.id3.ID3.*;
 
 /**
@@ -45,10 +55,55 @@ public class ImageFrame extends Frame {
     private String albumArtDescription;
     
     /**
-     * Raw bytes containing image.
+     * Raw bytes containing image. It is null as long as the image is backed by 
+     * <code>imageBuffer</code>.
      */
     private byte[] imageData;
     
+    /**
+     * Read-only slice of the frame data containing the image.
+     */
+    private ByteBuffer imageBuffer;
+    
+    /**
+     * Image not read into memory yet, copied straight into the media file when
+     * the tag is packed.
+     */
+    private ImageSource imageSource;
+    
+    /**
+     * True if a streamed image has been written into the media file and is not
+     * held in memory. The image ends the frame stored at the source position
+     * and is read on demand.
+     */
+    private boolean imageStored;
+    
+    /**
+     * Size of the image stored in the media file.
+     */
+    private int storedImageLength;
+    
+    /**
+     * Shared handle of the image once it has been added to the art store.
+     */
+    private AlbumArt art;
+    
+    /**
+     * True once the frame data has been decoded.
+     */
+    private boolean unpacked;
+    
+    /**
+     * Number of leading image bytes used to detect the MIME type.
+     */
+    private static final int MIME_SNIFF_SIZE = 16;
+    
+    /**
+     * Store sharing identical images between frames, null to keep a copy per 
+     * frame.
+     */
+    private static volatile AlbumArtStore artStore = AlbumArtStore.getDefault();
+    
     /**
      * Image associated with the current APIC frame.
      */
@@ -66,8 +121,18 @@ public class ImageFrame extends Frame {
     public ImageFrame(int size, byte[] data, boolean parseFrameData) {
     	super("APIC", size, data);
     	
-    	if(parseFrameData)
-    		unpack();
+    	// New frames have nothing to decode
+    	unpacked = !parseFrameData;
+    }
+    
+    
+    /**
+     * Creates a new instance of <code>ImageFrame</code> backed by the given buffer,
+     * usually a read-only slice of the loaded ID3 tag. The image is not copied.
+     * @param payload Buffer containing the frame data.
+     */
+    public ImageFrame(ByteBuffer payload) {
+    	super(FRAME_APIC, payload);
     }
     
     
@@ -115,7 +180,7 @@ public class ImageFrame extends Frame {
 		byte[] 	imageDescByte	= getBytes(imageDesc, encoding);
 		
 		
-		int frameSize			= mimeTypeByte.length + imageDescByte.length + 3;
+		int frameSize			= 1 + mimeTypeByte.length + 1 + 1 + imageDescByte.length + 1 + imageBinaryData.length;
 		byte[] frameData = new byte[frameSize];
 
 		
@@ -152,14 +217,25 @@ public class ImageFrame extends Frame {
     	
 		frame = new ImageFrame(frameSize, frameData, false);
 		
+		frame.setEncodingName(encoding);
+		frame.mimeType				= mimeType;
+		frame.albumArtType			= ALBUM_ART_TYPE[imageTypeByte];
+		frame.albumArtDescription	= imageDesc;
+		frame.imageData				= imageBinaryData.clone();
+		
     	return frame;
     }
     
     
     /**
-     * Evaluates the current APIC frame and extract various data from frame.
+     * Evaluates the current APIC frame and extract various data from frame, if 
+     * not done already.
      */
     private void unpack() {
+        if(unpacked)
+            return;
+        unpacked = true;
+        
         /**
          * Image inside a APIC data is stored in below format. 
          * Text encoding $xx (Already processed by the super class)
@@ -168,32 +244,51 @@ public class ImageFrame extends Frame {
          * Description text string according to encoding $00 (00) 
          * Picture data binary image data
          */
+        ByteBuffer data = getPayload();
+        
         int index = 1; // Not 0 as first byte is already processed by super()
         
         // Move till the mime type text ends
-        while(data[index++] != 0);
+        while(data.get(index++) != 0);
         
-        mimeType = getString(data, 1, index - 1, encoding);
+        // Exclude the terminator from the mime type
+        mimeType = getString(data, 1, index - 2, getCharset());
         
         // Next byte contains the image type
-        int picType = data[index];
+        int picType = data.get(index);
         albumArtType = ALBUM_ART_TYPE[picType];
         
         /**
          * Read the image description
          */
         int descStartIndex = index + 1;
+        index = descStartIndex;
         
         // Move till the description ends
-        while(data[index++] != 0);
+        while(data.get(index++) != 0);
         
-        int descEndIndex = index - descStartIndex;
+        // Exclude the terminator from the description
+        int descEndIndex = index - descStartIndex - 1;
         
-        albumArtDescription = getString(data, descStartIndex, descEndIndex, encoding);
+        albumArtDescription = getString(data, descStartIndex, descEndIndex, getCharset());
         
         // The real image data
-        imageData = new byte[data.length - index];
-        imageData = Arrays.copyOfRange(data, index, data.length);
+        data.position(index);
+        imageBuffer = data.slice();
+        imageData   = null;
+    }
+    
+    
+    /**
+     * Replaces the image of the frame by its shared copy in the store.
+     * @param store Store in which the image is kept.
+     */
+    private void share(AlbumArtStore store) {
+        ByteBuffer image = (imageData != null) ? ByteBuffer.wrap(imageData) : imageBuffer;
+        
+        art         = store.intern(image);
+        imageBuffer = art.getData();
+        imageData   = null;
     }
     
 
@@ -205,6 +300,120 @@ public class ImageFrame extends Frame {
 	 */
     @Override
     public byte[] pack() {
+        // Unmodified frames are packed from their original data
+        if(!isModified() && getStoredPayload() != null)
+            return super.pack();
+        
+        unpack();
+        materialize();
+        
+		byte[] frameData = new byte[serializedSize()];
+		packInto(ByteBuffer.wrap(frameData));
+		
+		setData(Arrays.copyOfRange(frameData, HEADER_SIZE, frameData.length));
+    	
+    	return frameData;
+    }
+    
+    
+    @Override
+    public int serializedSize() {
+        if(!isModified() && getStoredPayload() != null)
+            return super.serializedSize();
+        
+        unpack();
+        
+        return HEADER_SIZE + fieldsSize() + imageSize();
+    }
+    
+    
+    /**
+     * Converts the frame information to binary format at the position of the 
+     * buffer. A streamed image is read into memory first.
+     * @param out Buffer receiving the frame header and data.
+     */
+    @Override
+    public void packInto(ByteBuffer out) {
+        if(!isModified() && getStoredPayload() != null) {
+            super.packInto(out);
+            return;
+        }
+        
+        unpack();
+        materialize();
+        
+        packHeader(out, fieldsSize() + imageSize());
+        packFields(out);
+        
+		/**
+		 * Copy the original image binary data
+		 */
+		if(imageData != null)
+			out.put(imageData);
+		else if(imageBuffer != null)
+			out.put(imageBuffer.duplicate());
+    }
+    
+    
+    /**
+     * Gets, the size of the header and text fields of a frame whose image is 
+     * streamed from an <code>ImageSource</code>.
+     * @return Number of bytes written by <code>packHead()</code>.
+     */
+    int headSize() {
+        unpack();
+        
+        return HEADER_SIZE + fieldsSize();
+    }
+    
+    
+    /**
+     * Packs the frame header and the text fields of a frame whose image is 
+     * streamed from an <code>ImageSource</code>. The size in the header includes
+     * the image, which is to be written right after the packed bytes.
+     * @param out Buffer receiving the frame header and the text fields.
+     */
+    void packHead(ByteBuffer out) {
+        unpack();
+        
+        size = fieldsSize() + imageSource.length();
+        
+        packHeader(out, size);
+        packFields(out);
+    }
+    
+    
+    /**
+     * Gets, the size of the image in bytes.
+     */
+    private int imageSize() {
+        if(imageSource != null)
+            return imageSource.length();
+        if(imageStored)
+            return storedImageLength;
+        if(imageData != null)
+            return imageData.length;
+        
+        return (imageBuffer != null) ? imageBuffer.remaining() : 0;
+    }
+    
+    
+    /**
+     * Gets, the size of the text fields preceding the image.
+     */
+    private int fieldsSize() {
+		final int PADDING = 1;
+		
+		return 1 + getByteCount(mimeType, encoding) + PADDING + 1 + getByteCount(albumArtDescription, encoding) + PADDING;
+    }
+    
+    
+    /**
+     * Converts the text fields of the frame to binary format at the position of
+     * the buffer.
+     * @param out Buffer receiving the text fields.
+     */
+    private void packFields(ByteBuffer out) {
         /**
          * Image inside a APIC data is stored in below format. 
          * Text encoding $xx (Already processed by the super class)
@@ -213,27 +422,6 @@ public class ImageFrame extends Frame {
          * Description text string according to encoding $00 (00) 
          * Picture data binary image data
          */
-    	
-		/**
-		 * Gets the encoding byte
-		 */
-		byte encodingByte = 0;
-		switch (encoding) {
-		case ENCODING_ISO_8859_1:
-			encodingByte = 0;
-			break;
-		case ENCODING_UTF16:
-			encodingByte = 1;
-			break;
-		case ENCODING_UTF16BE:
-			encodingByte = 2;
-			break;
-		case ENCODING_UTF8:
-			encodingByte = 3;
-			break;
-		}
-		
-		byte[] 	mimeTypeByte 	= getBytes(mimeType, encoding);
 		byte	imageTypeByte	= 0;
 		for (int i = 0; i < ALBUM_ART_TYPE.length; i++) {
 			if (ALBUM_ART_TYPE[i].equals(albumArtType)) {
@@ -241,52 +429,16 @@ public class ImageFrame extends Frame {
 				break;
 			}
 		}
-		byte[] 	imageDescByte	= getBytes(albumArtDescription, encoding);
 		
+		out.put(getEncodingByte());
 		
-		/**
-		 * Image frame size = text_encoding_byte(1) + mime_type_length + picture_type_length + description_type_length 
-		 * 					+ image_binary_data_length + extra_padding
-		 */
-		final int PADDING = 1;
-		int frameSize = 1 + mimeTypeByte.length + PADDING + 1 + imageDescByte.length + PADDING + imageData.length;
-		data = new byte[frameSize];
-
+		putString(out, mimeType, encoding);
+		out.put((byte) 0);
 		
-		/**
-		 * Copy the encoding byte
-		 */
-		int copyIndex 	= 0;
-		data[copyIndex] = encodingByte;
-		copyIndex += 1;
+		out.put(imageTypeByte);
 		
-		/**
-		 * Copy the mime type to frame data
-		 */
-		System.arraycopy(mimeTypeByte, 0, data, copyIndex, mimeTypeByte.length);
-		copyIndex += mimeTypeByte.length;
-		data[copyIndex++] = 0;
-		
-		/**
-		 * Copy the image type information data
-		 */
-		data[copyIndex++] = imageTypeByte;
-		
-		/**
-		 * Copy the image description information data
-		 */
-		System.arraycopy(imageDescByte, 0, data, copyIndex, imageDescByte.length);
-		copyIndex += imageDescByte.length;
-		data[copyIndex++] = 0;
-		
-		/**
-		 * Copy the original image binary data
-		 */
-		System.arraycopy(imageData, 0, data, copyIndex, imageData.length);
-		
-		size = data.length;
-    	
-    	return super.pack();
+		putString(out, albumArtDescription, encoding);
+		out.put((byte) 0);
     }
     
     
@@ -297,6 +449,8 @@ public class ImageFrame extends Frame {
      * @return String specifying the mime type of the image.
      */
     public String getMimeType() {
+        unpack();
+        
         return mimeType;
     }
     
@@ -308,7 +462,10 @@ public class ImageFrame extends Frame {
      * @param mimeType MIME type of the image
      */
     public void setMimeType(String mimeType) {
+    	unpack();
+    	
     	this.mimeType = mimeType;
+    	setModified();
     }
     
 
@@ -317,6 +474,8 @@ public class ImageFrame extends Frame {
      * @return String specifying the current APIC type.
      */
     public String getAlbumArtType() {
+        unpack();
+        
         return albumArtType;
     }
     
@@ -327,7 +486,10 @@ public class ImageFrame extends Frame {
      * @see ID3.ALBUM_ART_TYPE
      */
     public void setAlbumArtType(String albumArtType) {
+    	unpack();
+    	
     	this.albumArtType = albumArtType;
+    	setModified();
     }
     
 
@@ -336,6 +498,8 @@ public class ImageFrame extends Frame {
      * @return Description of album are if any otherwise null.
      */
     public String getAlbumArtDescription() {
+        unpack();
+        
         return albumArtDescription;
     }
     
@@ -345,26 +509,101 @@ public class ImageFrame extends Frame {
      * @param description Description of album art
      */
     public void setAlbumArtDescription(String description) {
+    	unpack();
+    	
     	this.albumArtDescription = description;
+    	setModified();
     }
 
     
     /**
-     * Gets, the raw bytes containing the image.
+     * Gets, a copy of the raw bytes containing the image. The bytes are copied
+     * on every call and not kept by the frame, prefer <code>getArt()</code> to
+     * read a shared image without copying it.
      * @return Array of bytes containing image.
      */
     public byte[] getImageData() {
-        return imageData;
+        unpack();
+        materialize();
+        
+        if(imageData != null)
+            return imageData.clone();
+        
+        if(imageBuffer == null)
+            return null;
+        
+        byte[] bytes = new byte[imageBuffer.remaining()];
+        imageBuffer.duplicate().get(bytes);
+        
+        return bytes;
     }
     
     
     /**
-     * Gets, the Image representation of the raw image bytes.
-     * @return Instance of Image specifying the APIC image.
-     * @see getBufferedImage()
+     * Gets, the shared handle of the image without copying the image bytes. 
+     * Frames containing identical images return the same handle. The image is
+     * added to the art store on the first call, which lets go of the loaded tag.
+     * @return Handle of the image or null if the frame has no image.
+     * @see AlbumArtStore
+     */
+    public AlbumArt getArt() {
+        unpack();
+        materialize();
+        
+        if(art == null && (imageData != null || imageBuffer != null)) {
+            AlbumArtStore store = artStore;
+            
+            if(store != null) {
+                share(store);
+                release();
+            } else {
+                ByteBuffer image = (imageData != null) ? ByteBuffer.wrap(imageData) : imageBuffer;
+                
+                return new AlbumArt(AlbumArtStore.hash(image), image);
+            }
+        }
+        
+        return art;
+    }
+    
+    
+    /**
+     * Gets, the Image representation of the raw image bytes. The image is 
+     * decoded from the shared handle, without copying the image bytes.
+     * @return Instance of Image specifying the APIC image, null if the frame 
+     * has no decodable image.
+     * @see getArt()
      */
     public Image getAlbumArt() {
-    	return getImage(imageData);
+    	AlbumArt art = getArt();
+    	
+    	if(art == null)
+    		return null;
+    	
+    	try (InputStream stream = art.openStream()) {
+    		return ImageIO.read(stream);
+    	} catch (IOException e) {
+    		return null;
+    	}
+    }
+    
+    
+    /**
+     * Gets, the album art decoded at a reduced size, e.g. for a grid view. The 
+     * image is subsampled while it is decoded and thumbnails are shared by all
+     * frames containing the same image.
+     * @param maxWidth Maximum width of the thumbnail.
+     * @param maxHeight Maximum height of the thumbnail.
+     * @return Thumbnail of the album art or null if there is no decodable image.
+     * @see ThumbnailCache
+     */
+    public BufferedImage getThumbnail(int maxWidth, int maxHeight) {
+    	AlbumArt art = getArt();
+    	
+    	if(art == null)
+    		return null;
+    	
+    	return ThumbnailCache.getDefault().get(art, maxWidth, maxHeight);
     }
     
     
@@ -373,7 +612,238 @@ public class ImageFrame extends Frame {
      * @param image Image to be set.
      */
     public void setAlbumArt(Image image) {
+    	byte[] bytes = getBytes(image);
+    	
+    	if(bytes == null)
+    		throw new IllegalArgumentException("Unable to encode the image.");
+    	
+    	setImageData(ByteBuffer.wrap(bytes), "image/jpeg");
+    	
     	this.image 		= image;
-    	this.imageData 	= getBytes(image);
+    }
+    
+    
+    /**
+     * Sets, the already encoded image of the album art. The bytes are embedded 
+     * as they are, without being decoded or re-encoded.
+     * @param imageData Encoded image, e.g. the content of a JPEG or PNG file.
+     * @param mimeType MIME type of the image or null to detect it from the image.
+     */
+    public void setImageData(byte[] imageData, String mimeType) {
+    	setImageData(ByteBuffer.wrap(imageData), mimeType);
+    }
+    
+    
+    /**
+     * Sets, the album art to the content of an image file. The bytes are 
+     * embedded as they are, without being decoded or re-encoded.
+     * @param imageFile Image file, e.g. a JPEG or PNG file.
+     * @param mimeType MIME type of the image or null to detect it from the image.
+     * @throws IOException If the image file cannot be read.
+     */
+    public void setImageData(Path imageFile, String mimeType) throws IOException {
+    	ImageSource source = ImageSource.of(imageFile);
+    	
+    	if(mimeType == null)
+    		mimeType = ID3.getMimeType(source.head(MIME_SNIFF_SIZE));
+    	
+    	setImageSource(source, mimeType);
+    }
+    
+    
+    /**
+     * Sets, the album art to the next <code>length</code> bytes of the stream. 
+     * The stream is read only when the tag is packed, the bytes are embedded as
+     * they are and copied straight into the media file.
+     * @param imageStream Stream containing the encoded image.
+     * @param length Size of the image in bytes.
+     * @param mimeType MIME type of the image or null to detect it from the image.
+     * @throws IOException If the MIME type cannot be detected.
+     */
+    public void setImageData(InputStream imageStream, long length, String mimeType) throws IOException {
+    	if(mimeType == null) {
+    		PushbackInputStream stream = new PushbackInputStream(imageStream, MIME_SNIFF_SIZE);
+    		byte[] head = new byte[(int) Math.min(MIME_SNIFF_SIZE, length)];
+    		
+    		int count = 0;
+    		while(count < head.length) {
+    			int n = stream.read(head, count, head.length - count);
+    			if(n < 0)
+    				break;
+    			count += n;
+    		}
+    		
+    		stream.unread(head, 0, count);
+    		
+    		mimeType	= ID3.getMimeType(ByteBuffer.wrap(head, 0, count));
+    		imageStream	= stream;
+    	}
+    	
+    	setImageSource(ImageSource.of(imageStream, length), mimeType);
+    }
+    
+    
+    private void setImageSource(ImageSource source, String mimeType) {
+    	unpack();
+    	
+    	this.mimeType		= mimeType;
+    	this.imageSource	= source;
+    	this.imageStored	= false;
+    	this.imageData		= null;
+    	this.imageBuffer	= null;
+    	this.image			= null;
+    	this.art			= null;
+    	setModified();
+    	
+    	// Previous frame data is stale, it is rebuilt on request
+    	this.size			= fieldsSize() + source.length();
+    	release();
+    }
+    
+    
+    /**
+     * Reads a streamed image, or an image written from a stream into the media
+     * file, into memory.
+     */
+    private void materialize() {
+    	try {
+    		loadStoredImage();
+    		
+    		if(imageSource != null) {
+    			imageData	= imageSource.readAll();
+    			imageSource	= null;
+    		}
+    	} catch (IOException e) {
+    		throw new UncheckedIOException(e);
+    	}
+    }
+    
+    
+    /**
+     * Reads the image written into the media file into memory, e.g. before the
+     * tag is removed from the file.
+     * @throws IOException If the image cannot be read.
+     */
+    void loadStoredImage() throws IOException {
+    	if(!imageStored)
+    		return;
+    	
+    	TagVersion version = getSourceVersion();
+    	ByteBuffer tag;
+    	
+    	try (FileChannel channel = FileChannel.open(version.getFile(), StandardOpenOption.READ)) {
+    		tag = version.load(channel);
+    	} catch (IOException ex) {
+    		IOException exception = new IOException("Unable to read image data.");
+    		exception.initCause(ex);
+    		throw exception;
+    	}
+    	
+    	// Media file has been changed since the image was written
+    	if(tag == null)
+    		throw new IOException("Unable to read image data, the media file has changed.");
+    	
+    	byte[] image = new byte[storedImageLength];
+    	
+    	// The tag data follows the 10 byte header of the media file
+    	tag.position((int) (getSourcePosition() - HEADER_SIZE) + size - storedImageLength);
+    	tag.get(image);
+    	
+    	imageData	= image;
+    	imageStored	= false;
+    }
+    
+    
+    /**
+     * Gets, the image to be streamed into the media file.
+     * @return Image source or null if the image is held in memory.
+     */
+    ImageSource getImageSource() {
+    	return imageSource;
+    }
+    
+    
+    /**
+     * Records that a streamed image has been written into the media file after
+     * the tag has been packed. The image is not read back, it is loaded from
+     * the media file when it is requested. The frame must be pointed to its 
+     * position in the file by <code>setSource()</code>.
+     */
+    void setStoredImage() {
+    	storedImageLength	= imageSource.length();
+    	imageStored			= true;
+    	imageSource			= null;
+    	imageData			= null;
+    	imageBuffer			= null;
+    	art					= null;
+    	
+    	release();
+    }
+    
+    
+    /**
+     * Sets, the already encoded image of the album art. The remaining bytes of
+     * the buffer are copied as they are, without being decoded or re-encoded.
+     * @param imageData Buffer containing the encoded image from its position to
+     * its limit. Its position is not changed.
+     * @param mimeType MIME type of the image or null to detect it from the image.
+     */
+    public void setImageData(ByteBuffer imageData, String mimeType) {
+    	unpack();
+    	
+    	this.imageSource	= null;
+    	this.imageStored	= false;
+    	
+    	if(mimeType == null)
+    		mimeType = ID3.getMimeType(imageData);
+    	
+    	byte[] bytes = new byte[imageData.remaining()];
+    	imageData.duplicate().get(bytes);
+    	
+    	this.mimeType		= mimeType;
+    	this.imageData		= bytes;
+    	this.imageBuffer	= null;
+    	this.image			= null;
+    	this.art			= null;
+    	setModified();
+    }
+    
+    
+    /**
+     * Gets, the store sharing identical images between frames.
+     * @return Current art store or null if sharing is disabled.
+     */
+    public static AlbumArtStore getArtStore() {
+    	return artStore;
+    }
+    
+    
+    /**
+     * Sets, the store in which identical images are shared by getArt() from now
+     * on. The default store keeps images on the heap.
+     * @param store Art store or null to keep a private copy in each frame.
+     */
+    public static void setArtStore(AlbumArtStore store) {
+    	artStore = store;
+    }
+    
+    
+    @Override
+    void attach(ByteBuffer payload) {
+    	super.attach(payload);
+    	
+    	// Shared images do not need the written tag
+    	if(art != null) {
+    		release();
+    		return;
+    	}
+    	
+    	// Image data is always stored at the end of the frame
+    	if(unpacked && imageData == null && (imageBuffer != null || imageStored)) {
+    		ByteBuffer data = getPayload();
+    		data.position(size - imageSize());
+    		imageBuffer		= data.slice();
+    		imageStored		= false;
+    	}
     }
 }
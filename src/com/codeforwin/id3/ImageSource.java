@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <code>ImageSource</code> is an encoded image which has not been read into
+ * memory, either an image file or a stream of known length. Its bytes are
+ * copied straight into the media file when the tag is written.
+ * <br>
+ * A stream can be read only once.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ * @see ImageFrame#setImageData(InputStream, long, String)
+ */
+final class ImageSource {
+
+    private final Path file;
+    private final InputStream stream;
+    private final int length;
+
+    private boolean consumed;
+
+
+    private ImageSource(Path file, InputStream stream, long length) {
+        // Frame sizes are stored as 32 bit integers
+        if(length < 0 || length > Integer.MAX_VALUE - 1024)
+            throw new IllegalArgumentException("Invalid image size " + length);
+
+        this.file   = file;
+        this.stream = stream;
+        this.length = (int) length;
+    }
+
+
+    /**
+     * Creates a source reading the whole image file.
+     * @param file Image file.
+     * @return Instance of ImageSource.
+     * @throws IOException If the size of the file cannot be read.
+     */
+    static ImageSource of(Path file) throws IOException {
+        return new ImageSource(file, null, Files.size(file));
+    }
+
+
+    /**
+     * Creates a source reading exactly <code>length</code> bytes of the stream.
+     * @param stream Stream containing the image.
+     * @param length Size of the image.
+     * @return Instance of ImageSource.
+     */
+    static ImageSource of(InputStream stream, long length) {
+        return new ImageSource(null, stream, length);
+    }
+
+
+    /**
+     * Gets, the size of the image.
+     * @return Number of image bytes.
+     */
+    int length() {
+        return length;
+    }
+
+
+    /**
+     * Reads the first bytes of the image file, used to detect its format.
+     * Streams are not read.
+     * @param count Maximum number of bytes to read.
+     * @return Buffer containing the bytes read.
+     * @throws IOException
+     */
+    ByteBuffer head(int count) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(Math.min(count, length));
+
+        if(file != null) {
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                TagLoader.readFully(in, head, 0);
+            }
+        }
+
+        head.flip();
+
+        return head;
+    }
+
+
+    /**
+     * Copies the image into the channel at the given position, without reading
+     * it into the heap.
+     * @param out Channel of the file being written.
+     * @param position Absolute position of the image in the file.
+     * @throws IOException If the image cannot be read completely.
+     */
+    void transferTo(FileChannel out, long position) throws IOException {
+        if(file != null) {
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                transfer(in, out, position);
+            }
+        } else {
+            transfer(Channels.newChannel(take()), out, position);
+        }
+    }
+
+
+    private void transfer(ReadableByteChannel in, FileChannel out, long position) throws IOException {
+        long transferred = 0;
+
+        while(transferred < length) {
+            long n = out.transferFrom(in, position + transferred, length - transferred);
+
+            if(n <= 0)
+                throw new IOException("Unable to read image data.");
+
+            transferred += n;
+        }
+    }
+
+
+    /**
+     * Reads the whole image into memory.
+     * @return Array of bytes containing the image.
+     * @throws IOException If the image cannot be read completely.
+     */
+    byte[] readAll() throws IOException {
+        byte[] bytes = new byte[length];
+
+        if(file != null) {
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                if(TagLoader.readFully(in, ByteBuffer.wrap(bytes), 0) < length)
+                    throw new IOException("Unable to read image data.");
+            }
+        } else {
+            InputStream in = take();
+            int total = 0;
+
+            while(total < length) {
+                int n = in.read(bytes, total, length - total);
+
+                if(n < 0)
+                    throw new IOException("Unable to read image data.");
+
+                total += n;
+            }
+        }
+
+        return bytes;
+    }
+
+
+    private InputStream take() {
+        if(consumed)
+            throw new IllegalStateException("Image stream has already been read.");
+
+        consumed = true;
+
+        return stream;
+    }
+}
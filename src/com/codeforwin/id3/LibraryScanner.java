@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <code>LibraryScanner</code> walks a directory tree and reads the
+ * <code>MediaMetadata</code> of every media file found, in parallel on a
+ * configurable executor. Any executor can be used, e.g. the common fork-join
+ * pool (default), a fixed thread pool or, on recent JVMs, a virtual thread per
+ * task executor.
+ * <br>
+ * The number of files being read or waiting for delivery is bounded, so the
+ * walk never runs ahead of the readers. A failure to read one file is reported
+ * as a failed <code>Result</code> for that file and does not stop the scan.
+ * Results are delivered one at a time, either in completion order or, when
+ * ordered output is enabled, in the order the files were found by the walk.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ */
+public class LibraryScanner {
+
+    /**
+     * Default filter, accepts files with <code>.mp3</code> extension.
+     */
+    public static final Predicate<Path> MP3_FILES = (path) -> {
+        String name = path.getFileName().toString();
+        return name.regionMatches(true, name.length() - 4, ".mp3", 0, 4);
+    };
+
+    /**
+     * <code>Result</code> of reading a single media file.
+     */
+    public static final class Result {
+        private final Path path;
+        private final MediaMetadata metadata;
+        private final Throwable error;
+
+        private Result(Path path, MediaMetadata metadata, Throwable error) {
+            this.path       = path;
+            this.metadata   = metadata;
+            this.error      = error;
+        }
+
+        /**
+         * Gets, the media file.
+         * @return Path of the media file.
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * Gets, the metadata read from the media file.
+         * @return Metadata of the file, null if reading failed.
+         */
+        public MediaMetadata getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * Gets, the error which occurred while reading the media file.
+         * @return Error or null if the file was read successfully.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * Gets, whether the media file was read successfully.
+         * @return True if metadata is available.
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    private final Executor executor;
+
+    private int maxInFlight;
+
+    private boolean ordered;
+
+    private Predicate<Path> fileFilter;
+
+
+    /**
+     * Creates a new scanner reading files on the common fork-join pool.
+     */
+    public LibraryScanner() {
+        this(ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * Creates a new scanner reading files on the given executor.
+     * @param executor Executor on which media files are read.
+     */
+    public LibraryScanner(Executor executor) {
+        if(executor == null)
+            throw new IllegalArgumentException("Executor must not be null.");
+
+        this.executor       = executor;
+        this.maxInFlight    = Runtime.getRuntime().availableProcessors() * 4;
+        this.ordered        = false;
+        this.fileFilter     = MP3_FILES;
+    }
+
+
+    /**
+     * Walks the directory tree and reads every media file accepted by the file
+     * filter. The method returns once all results have been delivered.
+     * <br>
+     * The callback is never invoked concurrently, but may be invoked from the
+     * executor threads. If the callback throws, the walk stops, the remaining
+     * results are discarded and the exception is rethrown once all files in
+     * flight have completed.
+     *
+     * @param root Root directory of the library.
+     * @param callback Consumer receiving the result of each file.
+     * @return Number of results delivered.
+     * @throws IOException If the root directory cannot be walked.
+     * @throws InterruptedException If the calling thread is interrupted.
+     */
+    public long scan(Path root, Consumer<Result> callback) throws IOException, InterruptedException {
+        Scan scan = new Scan(callback);
+
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if(attrs.isRegularFile() && fileFilter.test(file))
+                        return scan.submit(file) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return scan.fail(file, exc) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+                }
+            });
+        } finally {
+            scan.await();
+        }
+
+        scan.rethrow();
+
+        return scan.delivered;
+    }
+
+
+    /**
+     * Walks the directory tree on a background thread and returns the results
+     * as a lazily populated stream. Closing the stream stops the walk.
+     * @param root Root directory of the library.
+     * @return Stream of results.
+     */
+    public Stream<Result> stream(Path root) {
+        final Result end = new Result(root, null, null);
+        BlockingQueue<Result> queue = new ArrayBlockingQueue<>(maxInFlight);
+        AtomicBoolean closed = new AtomicBoolean();
+
+        Thread walker = new Thread(() -> {
+            try {
+                scan(root, (result) -> put(queue, result, closed));
+            } catch (IOException e) {
+                put(queue, new Result(root, null, e), closed);
+            } catch (InterruptedException e) {
+                // Stream has been closed
+            } finally {
+                put(queue, end, closed);
+            }
+        }, "LibraryScanner-" + root.getFileName());
+        walker.setDaemon(true);
+        walker.start();
+
+        Iterator<Result> iterator = new Iterator<Result>() {
+            private Result next;
+
+            @Override
+            public boolean hasNext() {
+                if(next == null) {
+                    try {
+                        next = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        next = end;
+                    }
+                }
+
+                return next != end;
+            }
+
+            @Override
+            public Result next() {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+
+                Result result = next;
+                next = null;
+
+                return result;
+            }
+        };
+
+        int characteristics = Spliterator.NONNULL | (ordered ? Spliterator.ORDERED : 0);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, characteristics), false)
+                .onClose(() -> {
+                    closed.set(true);
+                    walker.interrupt();
+                });
+    }
+
+
+    /**
+     * Hands a result to the stream consumer, dropping it once the stream has
+     * been closed so that no reader thread stays blocked.
+     */
+    private static void put(BlockingQueue<Result> queue, Result result, AtomicBoolean closed) {
+        try {
+            while(!closed.get()) {
+                if(queue.offer(result, 100, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * State of a single scan: bounds the work in flight and delivers results
+     * in the configured order.
+     */
+    private final class Scan {
+        private final Consumer<Result> callback;
+        private final boolean ordered;
+        private final Semaphore permits;
+        private final int maxPermits;
+
+        /**
+         * Completed results waiting for earlier results, ordered mode only.
+         */
+        private final HashMap<Long, Result> pending = new HashMap<>();
+
+        private long submitted;
+        private long nextToDeliver;
+        private long delivered;
+        private boolean interrupted;
+
+        /**
+         * First exception thrown by the callback.
+         */
+        private volatile Throwable failure;
+
+        Scan(Consumer<Result> callback) {
+            this.callback   = callback;
+            this.ordered    = LibraryScanner.this.ordered;
+            this.maxPermits = maxInFlight;
+            this.permits    = new Semaphore(maxPermits);
+        }
+
+        /**
+         * Reads the file on the executor once a permit is available.
+         * @return False if the scan has been interrupted.
+         */
+        boolean submit(Path file) {
+            if(failure != null || !acquire())
+                return false;
+
+            long sequence = submitted++;
+
+            try {
+                executor.execute(() -> {
+                    Result result = null;
+                    try {
+                        result = new Result(file, new MediaMetadata(file.toFile()), null);
+                    } catch (Throwable e) {
+                        result = new Result(file, null, e);
+                    } finally {
+                        // Always complete, otherwise await() never returns
+                        complete(sequence, result);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                complete(sequence, new Result(file, null, e));
+            }
+
+            return true;
+        }
+
+        /**
+         * Reports a file which could not be visited.
+         * @return False if the scan has been interrupted.
+         */
+        boolean fail(Path file, IOException error) {
+            if(failure != null || !acquire())
+                return false;
+
+            complete(submitted++, new Result(file, null, error));
+
+            return true;
+        }
+
+        private boolean acquire() {
+            try {
+                permits.acquire();
+                return true;
+            } catch (InterruptedException e) {
+                interrupted = true;
+                return false;
+            }
+        }
+
+        private synchronized void complete(long sequence, Result result) {
+            if(!ordered) {
+                deliver(result);
+                return;
+            }
+
+            pending.put(sequence, result);
+
+            // Deliver all results which are next in order
+            Result next;
+            while((next = pending.remove(nextToDeliver)) != null) {
+                nextToDeliver++;
+                deliver(next);
+            }
+        }
+
+        /**
+         * Hands the result to the callback. Once the callback has failed the
+         * result is discarded, but the permit is still released so that
+         * <code>await()</code> returns. The same holds for a null result, left
+         * when not even the error of a file could be recorded.
+         */
+        private void deliver(Result result) {
+            try {
+                if(failure == null && result != null)
+                    callback.accept(result);
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            } finally {
+                delivered++;
+                permits.release();
+            }
+        }
+
+        /**
+         * Waits until every submitted file has been delivered.
+         */
+        void await() throws InterruptedException {
+            permits.acquire(maxPermits);
+            permits.release(maxPermits);
+
+            if(interrupted)
+                throw new InterruptedException();
+        }
+
+        /**
+         * Rethrows the first exception thrown by the callback.
+         */
+        void rethrow() {
+            if(failure instanceof Error)
+                throw (Error) failure;
+
+            if(failure != null)
+                throw (RuntimeException) failure;
+        }
+    }
+
+
+    /**
+     * Gets, the maximum number of files read or waiting for delivery at a time.
+     * @return Maximum number of files in flight.
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+
+    /**
+     * Sets, the maximum number of files read or waiting for delivery at a time.
+     * @param maxInFlight Maximum number of files in flight, at least 1.
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if(maxInFlight < 1)
+            throw new IllegalArgumentException("At least one file must be in flight.");
+
+        this.maxInFlight = maxInFlight;
+    }
+
+
+    /**
+     * Gets, whether results are delivered in the order the files were found.
+     * @return True if output is ordered.
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+
+    /**
+     * Sets, whether results are delivered in the order the files were found
+     * or as soon as they are read.
+     * @param ordered True for ordered output.
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+
+    /**
+     * Gets, the filter deciding which files are read.
+     * @return File filter.
+     */
+    public Predicate<Path> getFileFilter() {
+        return fileFilter;
+    }
+
+
+    /**
+     * Sets, the filter deciding which files are read.
+     * @param fileFilter File filter.
+     * @see MP3_FILES
+     */
+    public void setFileFilter(Predicate<Path> fileFilter) {
+        if(fileFilter == null)
+            throw new IllegalArgumentException("File filter must not be null.");
+
+        this.fileFilter = fileFilter;
+    }
+}
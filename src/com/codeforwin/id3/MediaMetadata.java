@@ -16,17 +16,55 @@
  */
 package com.codeforwin.id3;
 
+import static com.codeforwin.id3.ID3.*;
+
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
 
 /**
+ * <code>MediaMetadata</code> exposes the common fields of the ID3 tag of a media 
+ * file. Each field is resolved from the frame index when its getter is first 
+ * called and is remembered afterwards, so reading a single field decodes only 
+ * the frames of that field; neither the album art nor the comments are decoded
+ * unless they are requested. Text frames without a field of their own are 
+ * available from <code>getUnknownFields()</code>.
+ * <br>
+ * Only the text and comment frames are kept in memory, the album art is read 
+ * from the media file when it is requested.
+ * <br>
+ * Fields are resolved while holding the lock of the instance, so an instance
+ * may be read by several threads, e.g. once it has been handed over by 
+ * <code>LibraryScanner</code> or <code>AsyncTagReader</code>.
  *
  * @author Pankaj Prakash
  * @version 0.9
  */
 public class MediaMetadata {
     
+    /**
+     * Marks a field which has not been resolved from the tag yet.
+     */
+    private static final String UNRESOLVED         = new String("");
+    private static final int    UNRESOLVED_NUMBER  = Integer.MIN_VALUE;
+    private static final Date   UNRESOLVED_DATE    = new Date(Long.MIN_VALUE);
+    
+    private static final Frame[] NO_FRAMES = new Frame[0];
+    
     /**
      * <b>APIC</b> tag - Attached picture with the media. 
      */
@@ -35,7 +73,7 @@ public class MediaMetadata {
     /**
      * <b>COMM</b> tag - Comments associated with the media.
      */
-    private String comment;
+    private String comment = UNRESOLVED;
     
     /**
      * <b>POPM</b> tag - The popularity meter frame.
@@ -45,463 +83,743 @@ public class MediaMetadata {
     /**
      * <b>TALB</b> tag - Album name.
      */
-    private String albumName;
+    private String albumName = UNRESOLVED;
     
     /**
      * <b>TCOM</b> tag - Composer of the media.
      */
-    private String composer;
+    private String composer = UNRESOLVED;
     
     /**
      * <b>TCON</b> tag - Content type of the media.
      */
-    private String genre;
+    private String genre = UNRESOLVED;
     
     /**
      * <b>TCOP</b> tag - Copyright message of the media.
      */
-    private String copyright;
+    private String copyright = UNRESOLVED;
     
     /**
      * <b>TDRC</b> tag - Date and time of the recording.
      */
-    private Date recordingTime;
+    private Date recordingTime = UNRESOLVED_DATE;
     
     /**
      * <b>TDRL</b> tag - Date and time of the release.
      */
-    private Date releaseTime;
+    private Date releaseTime = UNRESOLVED_DATE;
     
     /**
      * <b>TENC</b> tag - Media data encoded by.
      */
-    private String encodedBy;
+    private String encodedBy = UNRESOLVED;
     
     /**
      * <b>TEXT</b> tag - Lyricists/writer of the media.
      */
-    private String lyricist;
+    private String lyricist = UNRESOLVED;
     
     /**
      * <b>TIT2</b> tag - Name of the song or content description.
      */
-    private String songName;
+    private String songName = UNRESOLVED;
     
     /**
      * <b>TIT3</b> tag - Sub albumName of the song.
      */
-    private String subTitle;
+    private String subTitle = UNRESOLVED;
     
     /**
      * <b>TLEN</b> tag - Length of the media in minutes.
      */
-    private int length;
+    private int length = UNRESOLVED_NUMBER;
     
     /**
      * <b>TMED</b> tag - Type of the media.
      */
-    private String mediaType;
+    private String mediaType = UNRESOLVED;
     
     /**
      * <b>TOAL</b> tag - Original albumName of the media.
      */
-    private String originalTitle;
+    private String originalTitle = UNRESOLVED;
     
     /**
      * <b>TOFN</b> tag - Original name of the file.
      */
-    private String originalFileName;
+    private String originalFileName = UNRESOLVED;
     
     /**
      * <b>TOLY</b> tag - Original name of the lyricists.
      */
-    private String originalLyricist;
+    private String originalLyricist = UNRESOLVED;
     
     /**
      * <b>TOPE</b> tag - Original name of the media artist.
      */
-    private String originalArtist;
+    private String originalArtist = UNRESOLVED;
     
     /**
      * <b>TDOR</b> tag - Original release year of the media.
      */
-    private int originalReleaseYear;
+    private int originalReleaseYear = UNRESOLVED_NUMBER;
     
     /**
      * <b>TPE1</b> tag - Lead performers/Soloists of the song.
      */
-    private String leadPerformer;
+    private String leadPerformer = UNRESOLVED;
     
     /**
      * <b>TPE2</b> tag - Band/Orchestra of the song.
      */
-    private String albumArtists;
+    private String albumArtists = UNRESOLVED;
     
     /**
      * <b>TPE3</b> tag - Conductor of the media song.
      */
-    private String songConductor;
+    private String songConductor = UNRESOLVED;
     
     /**
      * <b>TPUB</b> tag - Publisher of the song.
      */
-    private String publisher;
+    private String publisher = UNRESOLVED;
     
     /**
      * <b>TRCK</b> tag - Track number of current song in album.
      */
-    private int trackNumber;
+    private int trackNumber = UNRESOLVED_NUMBER;
+    
+    /**
+     * <b>TRCK</b> tag - Number of tracks in the album, 0 if not known.
+     */
+    private int trackCount = UNRESOLVED_NUMBER;
     
     /**
      * <b>TDRC</b> tag - Recording date of the song.
      */
-    private Date recordingDate;
+    private Date recordingDate = UNRESOLVED_DATE;
     
     /**
      * <b>TRSN</b> tag - Internet radio station name of the media song.
      */
-    private String internetRadioStationName;
+    private String internetRadioStationName = UNRESOLVED;
     
     /**
      * <b>TRSO</b> tag - Internet radio station owner name of the media song.
      */
-    private String internetRadioStationOwner;
+    private String internetRadioStationOwner = UNRESOLVED;
     
     /**
      * <b>TYER</b> tag - Year of the media song.
      */
-    private int year;
+    private int year = UNRESOLVED_NUMBER;
     
     /**
      * <b>UFID</b> tag - Unique file identifier of the media file.
      */
-    private String ufid;
+    private String ufid = UNRESOLVED;
     
     /**
      * <b>WCOM</b> tag - Commercial information of the media song.
      */
-    private String commercialInformation;
+    private String commercialInformation = UNRESOLVED;
     
     /**
      * <b>WCOP</b> tag - Additional copyright information of media song.
      */
-    private String copyrightInformation;
+    private String copyrightInformation = UNRESOLVED;
     
     /**
      * <b>WOAF</b> tag - Official webpage of the audio file.
      */
-    private String officialAudioWebpage;
+    private String officialAudioWebpage = UNRESOLVED;
     
     /**
      * <b>WOAR</b> tag - Official webpage of the artist/performer.
      */
-    private String officialArtistWebpage;
+    private String officialArtistWebpage = UNRESOLVED;
     
     /**
      * <b>WOAS</b> tag - Official webpage of the audio source.
      */
-    private String officialAudioSourceWebpage;
+    private String officialAudioSourceWebpage = UNRESOLVED;
     
     /**
      * <b>WORS</b> tag - Official homepage of the internet radio station homepage.
      */
-    private String officialInternetRadioStationHomepage;
+    private String officialInternetRadioStationHomepage = UNRESOLVED;
     
     /**
      * <b>WPUB</b> tag - Official web page of the media song publisher.
      */
-    private String officialPublisherWebpage;
+    private String officialPublisherWebpage = UNRESOLVED;
     
     
     private File musicFile  = null;
-    private ID3Metadata id3 = null;
+    
+    /**
+     * Text and comment frames copied out of the parsed tag, the fields are 
+     * resolved from. Null if the metadata has been loaded from the index or 
+     * the media file has no tag.
+     */
+    private FrameTable textFrames = null;
+    
+    /**
+     * Index entry the metadata has been loaded from, null if it has been parsed
+     * from the media file.
+     */
+    private MetadataIndex.Entry indexEntry = null;
+    
+    /**
+     * Offset of the album art data relative to the tag data, -1 if the tag has
+     * no album art. The album art is read from the media file when requested.
+     */
+    private int imageOffset = -1;
+    
+    /**
+     * Size of the album art data.
+     */
+    private int imageSize;
+    
+    /**
+     * Both flag bytes of the album art frame.
+     */
+    private int imageFlags;
+    
+    /**
+     * True once the album art has been looked up.
+     */
+    private boolean imageResolved = false;
+    
+    /**
+     * Text of the frames which have no field, by frame ID. Null until first 
+     * requested.
+     */
+    private Map<String, String> unknownFields = null;
     
     
     public MediaMetadata(File musicFile) throws IOException {
+        this(musicFile, ID3Metadata.parseMedia(musicFile));
+    }
+    
+    
+    /**
+     * Creates a new instance of MediaMetadata from the tag cached for the media
+     * file, parsing and caching the tag if it is not cached yet or the file has 
+     * changed.
+     * @param musicFile Media file.
+     * @param cache Cache of parsed tags.
+     * @throws IOException If the media file cannot be read.
+     */
+    public MediaMetadata(File musicFile, MetadataCache cache) throws IOException {
+        this(musicFile, cache.get(musicFile));
+    }
+    
+    
+    /**
+     * Creates a new instance of MediaMetadata from a parsed tag. The text and 
+     * comment frames are copied out of the tag and decoded when the first 
+     * getter needing them is called. The album art is read from the media file
+     * when it is requested, so that the instance does not hold the tag.
+     * @param id3 Tag of the media file, null if it has no tag.
+     */
+    private MediaMetadata(File musicFile, ID3Metadata id3) {
         this.musicFile = musicFile;
-
-		id3 = ID3Metadata.parseMedia(musicFile);
-
-        if(id3 == null) 
-            id3 = new ID3Metadata(musicFile);
         
-        getAllMetadata();
+        try {
+            FrameTable table = (id3 == null) ? null : id3.getFrameTable();
+            
+            if (table != null) {
+                // Last album art wins, as when parsing the tag
+                for (int i = 0; i < table.size(); i++) {
+                    if (table.getFrameCode(i) == FRAME_APIC)
+                        setImage(table.getOffset(i), table.getSize(i), table.getFlags(i));
+                }
+                
+                textFrames = table.copy(MediaMetadata::isText);
+            }
+        } catch (IOException e) {
+            // Tag cannot be read, no fields
+        }
     }
     
     
+    /**
+     * Gets, the frames of the tag with the given frame identifier, in the 
+     * order they appear in the tag. Only these frames are decoded.
+     * @param frameCode Packed identifier of the frames, a text or comment frame.
+     * @return Frames of the tag, empty if there are none.
+     */
+    private Frame[] getFrames(int frameCode) {
+        if (textFrames == null)
+            return NO_FRAMES;
+        
+        ArrayList<Frame> frames = new ArrayList<>();
+        
+        int index = textFrames.indexOf(frameCode, 0);
+        while (index >= 0) {
+            frames.add(textFrames.get(index));
+            index = textFrames.indexOf(frameCode, index + 1);
+        }
+        
+        return frames.toArray(new Frame[frames.size()]);
+    }
+    
     
     /**
-     * If the current media file contains mp3 metadata the get all frame data.
-     * If the media file does not contains mp3 metadata then it creates a 
-     * ID3 frame and initializes all metadata fields to null.
+     * Gets, the text of the last text frame with the given frame identifier.
+     * @param frameCode Packed identifier of the frame.
+     * @return Decoded text or null if there is no such frame.
      */
-    private void getAllMetadata() {
-        if (id3 == null) {
-            id3 = new ID3Metadata(musicFile);
+    private String getText(int frameCode) {
+        String value = null;
+        
+        if (indexEntry != null) {
+            for (int i = 0; i < indexEntry.fieldCodes.length; i++) {
+                if (indexEntry.fieldCodes[i] == frameCode)
+                    value = indexEntry.fieldValues[i];
+            }
+            
+            return value;
         }
-
-        Frame frames[] = null;
         
-        try {
-        	frames = id3.getAllFrames();
-        } catch (IOException e) {
-        	return;
+        for (Frame frame : getFrames(frameCode)) {
+            String text = getFieldValue(frame);
+            
+            if (text != null)
+                value = text;
         }
-
-        // If the media contains metadata
-        if (frames.length < 1) {
-            return;
+        
+        return value;
+    }
+    
+    
+    /**
+     * Gets, the text of all comment frames, joined by two backslashes.
+     * @return Comments or null if the tag has no comment.
+     */
+    private String getComments() {
+        StringBuilder comments = null;
+        
+        if (indexEntry != null) {
+            for (int i = 0; i < indexEntry.fieldCodes.length; i++) {
+                if (indexEntry.fieldCodes[i] == FRAME_COMM)
+                    comments = appendComment(comments, indexEntry.fieldValues[i]);
+            }
+        } else {
+            for (Frame frame : getFrames(FRAME_COMM)) {
+                String text = getFieldValue(frame);
+                
+                if (text != null)
+                    comments = appendComment(comments, text);
+            }
         }
-
-        // Get all frame details
-        for (Frame frame : frames) {
-            switch (frame.getFrameID()) {
-                case "APIC":
-                    imageFrame = (ImageFrame)frame;
-                    break;
-
-                case "COMM":
-    				CommentFrame commFrame = (CommentFrame) frame;
-
-    				if (comment == null)
-    					comment = commFrame.getComment();
-    				else
-    					comment += "\\\\" + commFrame.getComment();
-                    break;
-
-                case "POPM":
-                    
-                    break;
-
-                case "TALB":
-                    albumName = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TCOM":
-                    composer = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TCON":
-                    genre = ((TextFrame)frame).getTextData();
-                    
-                    if(genre.matches("\0\\(\\d\\)")) {
-                        try {
-                            genre = genre.replaceAll("[\0\\(\\)]", "");
-                            int index = Integer.parseInt(genre);
-
-                            genre = ID3.GENRES[index];
-                        } catch (Exception e) {
-                            System.out.println("com.codeforwin.id3.MediaMetadata.getAllMetadata()");
-                        }
-                    }
-                    break;
-
-                case "TCOP":
-                    copyright = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TYER":
-                	String yr = ((TextFrame)frame).getTextData();
-                    try {
-                        year = Integer.parseInt(yr);
-                    } catch (NumberFormatException e) {
-                        year = Integer.parseInt(yr.replace("\0", ""));
-                    }
-                    break;
-
-                case "TDRL":
-                    releaseTime = null;
-                    break;
-
-                case "TENC": //Media data encoded by.
-                    encodedBy = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TEXT": //Lyricists/writer of the media.
-                    lyricist = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TIT2": //Name of the song or content description.
-                    songName = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TIT3": //Sub albumName of the song.
-                    subTitle = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TLEN": //Length of the media in minutes.
-                	String len = ((TextFrame)frame).getTextData();
-                    try {
-                        length = Integer.parseInt(len);
-                    } catch (NumberFormatException e) {
-                        length = Integer.parseInt(len.replace("\0", ""));
-                    }
-                    break;
-
-                case "TMED": //Type of the media.
-                    mediaType = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TOAL": //Original albumName of the media.
-                    originalTitle = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TOFN": //Original name of the file.
-                    originalFileName = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TOLY": //Original name of the lyricists.
-                    originalLyricist = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TOPE": //Original name of the media artist.
-                    originalArtist = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TDOR": //Original release year of the media.
-                	String ory = ((TextFrame)frame).getTextData();
-                    try {
-                        originalReleaseYear = Integer.parseInt(ory);
-                    } catch (NumberFormatException e) {
-                        originalReleaseYear = Integer.parseInt(ory.replace("\0", ""));
-                    }
-                    break;
-
-                case "TPE1": //Lead performers/Soloists of the song.
-                    leadPerformer = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TPE2": //Band/Orchestra of the song.
-                    albumArtists = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TPE3": //Conductor of the media song.
-                    songConductor = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TPUB": //Publisher of the song.
-                    publisher = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TRCK": //Track number of current song in album.
-                	String trck = ((TextFrame)frame).getTextData();
-                    try {
-                        trackNumber = Integer.parseInt(trck);
-                    } catch (NumberFormatException e) {
-                        if(trck.contains("/"))
-                            trck = trck.substring(0, trck.indexOf("/"));
-                        
-                        trck = trck.replace("\0", "");
-                        
-                        trackNumber = Integer.parseInt(trck);
-                    }
-                    break;
-
-                case "TRSN": //Internet radio station name of the media song.
-                    internetRadioStationName = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "TRSO": //Internet radio station owner name of the media song.
-                    internetRadioStationOwner = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "UFID": //Unique file identifier of the media file.
-                    ufid = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "WCOM": //Commercial information of the media song.
-                    commercialInformation = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "WCOP": //Additional copyright information of media song.
-                    copyrightInformation = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "WOAF": //Official webpage of the audio file.
-                    officialAudioWebpage = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "WOAR": //Official webpage of the artist/performer.
-                    officialArtistWebpage = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "WOAS": //Official webpage of the audio source.
-                    officialAudioSourceWebpage = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "WORS": //Official homepage of the internet radio station homepage.
-                    officialInternetRadioStationHomepage = ((TextFrame)frame).getTextData();
-                    break;
-
-                case "WPUB": //Official web page of the media song publisher.
-                    officialPublisherWebpage = ((TextFrame)frame).getTextData();
-                    break;
+        
+        return (comments == null) ? null : comments.toString();
+    }
+    
+    
+    private static StringBuilder appendComment(StringBuilder comments, String comment) {
+        if (comments == null)
+            return new StringBuilder(comment);
+        
+        return comments.append("\\\\").append(comment);
+    }
+    
+    
+    /**
+     * Gets, the decoded text of a text, comment or unique file identifier 
+     * frame.
+     * @param frame Frame to be decoded.
+     * @return Text of the frame or null if it is none of these frames.
+     */
+    private static String getFieldValue(Frame frame) {
+        if (frame instanceof TextFrame)
+            return ((TextFrame)frame).getTextData();
+        
+        if (frame instanceof CommentFrame)
+            return ((CommentFrame)frame).getComment();
+        
+        if (frame.getFrameCode() == FRAME_UFID)
+            return getIdentifier(frame);
+        
+        return null;
+    }
+    
+    
+    /**
+     * Gets, the identifier of a unique file identifier frame, which follows 
+     * the null terminated owner of the identifier.
+     * @param frame UFID frame.
+     * @return Identifier or null if the frame has no owner terminator.
+     */
+    private static String getIdentifier(Frame frame) {
+        ByteBuffer data = frame.getPayload();
+        
+        int index = data.position();
+        while (index < data.limit() && data.get(index) != 0)
+            index++;
+        
+        if (index >= data.limit())
+            return null;
+        
+        data.position(index + 1);
+        
+        return getString(data, StandardCharsets.ISO_8859_1);
+    }
+    
+    
+    /**
+     * Checks whether frames with the given identifier are decoded to text or
+     * comment frames, the only frames besides the album art that fields are 
+     * resolved from.
+     * @param frameCode Packed identifier of the frame.
+     * @return True for text, URL, comment and unique file identifier frames.
+     */
+    private static boolean isText(int frameCode) {
+        int prefix = frameCode >>> 24;
+        
+        return frameCode == FRAME_COMM || frameCode == FRAME_UFID || prefix == 'T' || prefix == 'W';
+    }
+    
+    
+    /**
+     * Checks whether the frame is resolved to a metadata field by one of the 
+     * getters.
+     * @param frameCode Packed identifier of the frame.
+     * @return True if the frame has a field.
+     */
+    private static boolean isField(int frameCode) {
+        switch (frameCode) {
+            case FRAME_APIC:
+            case FRAME_COMM:
+            case FRAME_POPM:
+            case FRAME_TALB:
+            case FRAME_TCOM:
+            case FRAME_TCON:
+            case FRAME_TCOP:
+            case FRAME_TYER:
+            case FRAME_TDRC:
+            case FRAME_TDRL:
+            case FRAME_TENC:
+            case FRAME_TEXT:
+            case FRAME_TIT2:
+            case FRAME_TIT3:
+            case FRAME_TLEN:
+            case FRAME_TMED:
+            case FRAME_TOAL:
+            case FRAME_TOFN:
+            case FRAME_TOLY:
+            case FRAME_TOPE:
+            case FRAME_TDOR:
+            case FRAME_TPE1:
+            case FRAME_TPE2:
+            case FRAME_TPE3:
+            case FRAME_TPUB:
+            case FRAME_TRCK:
+            case FRAME_TRSN:
+            case FRAME_TRSO:
+            case FRAME_UFID:
+            case FRAME_WCOM:
+            case FRAME_WCOP:
+            case FRAME_WOAF:
+            case FRAME_WOAR:
+            case FRAME_WOAS:
+            case FRAME_WORS:
+            case FRAME_WPUB:
+                return true;
+                
+            default:
+                return false;
+        }
+    }
+    
+    
+    /**
+     * Gets, the text of the text and comment frames which have no getter of 
+     * their own, e.g. TBPM or TSRC, by frame ID. Of several frames with the 
+     * same ID the last one wins.
+     * @return Unmodifiable map of frame IDs to text, in the order of the tag.
+     */
+    public synchronized Map<String, String> getUnknownFields() {
+        if (unknownFields == null) {
+            LinkedHashMap<String, String> fields = new LinkedHashMap<>();
+            
+            if (indexEntry != null) {
+                for (int i = 0; i < indexEntry.fieldCodes.length; i++) {
+                    if (!isField(indexEntry.fieldCodes[i]))
+                        fields.put(ID3.frameID(indexEntry.fieldCodes[i]), indexEntry.fieldValues[i]);
+                }
+            } else if (textFrames != null) {
+                for (int i = 0; i < textFrames.size(); i++) {
+                    int frameCode = textFrames.getFrameCode(i);
+                    String text = isField(frameCode) ? null : getFieldValue(textFrames.get(i));
                     
-                default:
-                    System.out.println(frame.getFrameID());
-                    break;
-            } // End of switch
-        } // End of for
+                    if (text != null)
+                        fields.put(ID3.frameID(frameCode), text);
+                }
+            }
+            
+            unknownFields = Collections.unmodifiableMap(fields);
+        }
+        
+        return unknownFields;
+    }
+    
+    
+    /**
+     * Converts a timestamp of the media file, which has no time zone, to a date
+     * in the default time zone.
+     * @return Date or null if the timestamp is not valid.
+     */
+    private static Date toDate(Optional<LocalDateTime> timestamp) {
+        return timestamp.map(time -> Date.from(time.atZone(ZoneId.systemDefault()).toInstant()))
+                .orElse(null);
+    }
+    
+    
+    /**
+     * Creates a new instance of MediaMetadata, loading it from the index if the
+     * file has not changed since it was indexed. Otherwise the file is parsed 
+     * and its metadata is stored in the index. The album art of an indexed file 
+     * is read from the file when it is first requested.
+     * <br>
+     * Files which are not indexed yet are read into the pooled buffers of the
+     * calling thread, so that scanning a library allocates no buffers per file.
+     * 
+     * @param musicFile Media file.
+     * @param index Index in which the metadata of media files are stored.
+     * @return Instance of MediaMetadata.
+     * @throws IOException If the media file cannot be read.
+     */
+    public static MediaMetadata open(File musicFile, MetadataIndex index) throws IOException {
+        Path path = musicFile.toPath();
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        
+        long fileSize       = attrs.size();
+        long lastModified   = attrs.lastModifiedTime().toMillis();
+        
+        MetadataIndex.Entry entry = index.get(path, fileSize, lastModified);
+        
+        if (entry != null)
+            return new MediaMetadata(musicFile, entry);
+        
+        ID3Metadata id3 = ID3Metadata.parseMedia(musicFile);
+        
+        // Only decoded values are kept, nothing refers to the pooled tag afterwards
+        entry = toIndexEntry(id3, fileSize, lastModified, ParseContext.get());
+        
+        index.put(path, entry);
+        
+        return new MediaMetadata(musicFile, entry);
+    }
+    
+    
+    /**
+     * Creates a new instance of MediaMetadata from an index entry without 
+     * reading the media file.
+     */
+    private MediaMetadata(File musicFile, MetadataIndex.Entry entry) {
+        this.musicFile = musicFile;
+        
+        // Last album art wins, as when parsing the tag
+        for (int i = 0; i < entry.frameCodes.length; i++) {
+            if (entry.frameCodes[i] == FRAME_APIC)
+                setImage(entry.frameOffsets[i], entry.frameSizes[i], entry.frameFlags[i]);
+        }
+        
+        this.indexEntry = entry;
+    }
+    
+    
+    /**
+     * Sets, the position of the album art frame in the tag.
+     */
+    private void setImage(int offset, int size, int flags) {
+        this.imageOffset    = offset;
+        this.imageSize      = size;
+        this.imageFlags     = flags;
+    }
+    
+    
+    /**
+     * Creates the index entry of the parsed media file. The frames are decoded
+     * from the pooled tag buffer of the context, only their positions and 
+     * decoded values are copied into the entry, so that neither the table nor
+     * its frames outlive this method.
+     */
+    private static MetadataIndex.Entry toIndexEntry(ID3Metadata id3, long fileSize, long lastModified, 
+            ParseContext context) throws IOException {
+        FrameTable table = (id3 == null) ? null : id3.scanFrameTable(context);
+        
+        int frameCount      = (table == null) ? 0 : table.size();
+        int[] frameCodes    = new int[frameCount];
+        int[] frameOffsets  = new int[frameCount];
+        int[] frameSizes    = new int[frameCount];
+        int[] frameFlags    = new int[frameCount];
+        
+        ArrayList<Integer> fieldCodes   = new ArrayList<>();
+        ArrayList<String> fieldValues   = new ArrayList<>();
+        
+        for (int i = 0; i < frameCount; i++) {
+            frameCodes[i]   = table.getFrameCode(i);
+            frameOffsets[i] = table.getOffset(i);
+            frameSizes[i]   = table.getSize(i);
+            frameFlags[i]   = table.getFlags(i);
+            
+            String value = getFieldValue(table.get(i));
+            
+            if (value != null) {
+                fieldCodes.add(frameCodes[i]);
+                fieldValues.add(value);
+            }
+        }
+        
+        int[] codes = new int[fieldCodes.size()];
+        for (int i = 0; i < codes.length; i++)
+            codes[i] = fieldCodes.get(i);
+        
+        int tagSize = (id3 == null) ? 0 : id3.getSize();
+        
+        return new MetadataIndex.Entry(fileSize, lastModified, tagSize, frameCodes, frameOffsets,
+                frameSizes, frameFlags, codes, fieldValues.toArray(new String[codes.length]));
+    }
+    
+    
+    /**
+     * Reads the album art frame from the media file. The image is shared if 
+     * an art store is set.
+     * @return Album art or null if it cannot be read.
+     */
+    private ImageFrame loadImageFrame() {
+        try (FileChannel channel = FileChannel.open(musicFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer payload = TagLoader.load(channel, HEADER_SIZE + imageOffset, imageSize);
+            
+            // File has been truncated since it was read
+            if (payload.remaining() < imageSize)
+                return null;
+            
+            Frame frame = FrameCodecRegistry.decode(FRAME_APIC, payload.asReadOnlyBuffer());
+            frame.setFlags((imageFlags >> 8) & 0xff, imageFlags & 0xff);
+            frame.setSource(HEADER_SIZE + imageOffset, null);
+            
+            ImageFrame image = (ImageFrame)frame;
+            
+            if (ImageFrame.getArtStore() != null)
+                image.getArt();
+            
+            return image;
+        } catch (IOException e) {
+            return null;
+        }
     }
 
 
-    public ImageFrame getImageFrame() {
+    public synchronized ImageFrame getImageFrame() {
+        if (!imageResolved) {
+            imageResolved = true;
+            imageFrame = (imageOffset >= 0) ? loadImageFrame() : null;
+        }
+        
         return imageFrame;
     }
 
-    public String getComment() {
+    public synchronized String getComment() {
+        if (comment == UNRESOLVED)
+            comment = getComments();
+        
         return comment;
     }
 
-    public String getAlbumArtists() {
+    public synchronized String getAlbumArtists() {
+        if (albumArtists == UNRESOLVED)
+            albumArtists = getText(FRAME_TPE2);
+        
         return albumArtists;
     }
 
-    public String getCommercialInformation() {
+    public synchronized String getCommercialInformation() {
+        if (commercialInformation == UNRESOLVED)
+            commercialInformation = getText(FRAME_WCOM);
+        
         return commercialInformation;
     }
 
-    public String getComposer() {
+    public synchronized String getComposer() {
+        if (composer == UNRESOLVED)
+            composer = getText(FRAME_TCOM);
+        
         return composer;
     }
 
-    public String getGenre() {
+    public synchronized String getGenre() {
+        if (genre == UNRESOLVED)
+            genre = FieldDecoder.parseGenre(getText(FRAME_TCON));
+        
         return genre;
     }
 
-    public String getCopyright() {
+    public synchronized String getCopyright() {
+        if (copyright == UNRESOLVED)
+            copyright = getText(FRAME_TCOP);
+        
         return copyright;
     }
 
-    public String getCopyrightInformation() {
+    public synchronized String getCopyrightInformation() {
+        if (copyrightInformation == UNRESOLVED)
+            copyrightInformation = getText(FRAME_WCOP);
+        
         return copyrightInformation;
     }
 
-    public String getEncodedBy() {
+    public synchronized String getEncodedBy() {
+        if (encodedBy == UNRESOLVED)
+            encodedBy = getText(FRAME_TENC);
+        
         return encodedBy;
     }
 
-    public String getInternetRadioStationName() {
+    public synchronized String getInternetRadioStationName() {
+        if (internetRadioStationName == UNRESOLVED)
+            internetRadioStationName = getText(FRAME_TRSN);
+        
         return internetRadioStationName;
     }
 
-    public String getInternetRadioStationOwner() {
+    public synchronized String getInternetRadioStationOwner() {
+        if (internetRadioStationOwner == UNRESOLVED)
+            internetRadioStationOwner = getText(FRAME_TRSO);
+        
         return internetRadioStationOwner;
     }
 
-    public String getLeadPerformer() {
+    public synchronized String getLeadPerformer() {
+        if (leadPerformer == UNRESOLVED)
+            leadPerformer = getText(FRAME_TPE1);
+        
         return leadPerformer;
     }
 
-    public int getLength() {
+    public synchronized int getLength() {
+        if (length == UNRESOLVED_NUMBER)
+            length = FieldDecoder.parseNumber(getText(FRAME_TLEN), 0);
+        
         return length;
     }
 
-    public String getLyricist() {
+    public synchronized String getLyricist() {
+        if (lyricist == UNRESOLVED)
+            lyricist = getText(FRAME_TEXT);
+        
         return lyricist;
     }
 
-    public String getMediaType() {
+    public synchronized String getMediaType() {
+        if (mediaType == UNRESOLVED)
+            mediaType = getText(FRAME_TMED);
+        
         return mediaType;
     }
 
@@ -509,43 +827,73 @@ public class MediaMetadata {
         return musicFile;
     }
 
-    public String getOfficialArtistWebpage() {
+    public synchronized String getOfficialArtistWebpage() {
+        if (officialArtistWebpage == UNRESOLVED)
+            officialArtistWebpage = getText(FRAME_WOAR);
+        
         return officialArtistWebpage;
     }
 
-    public String getOfficialAudioSourceWebpage() {
+    public synchronized String getOfficialAudioSourceWebpage() {
+        if (officialAudioSourceWebpage == UNRESOLVED)
+            officialAudioSourceWebpage = getText(FRAME_WOAS);
+        
         return officialAudioSourceWebpage;
     }
 
-    public String getOfficialAudioWebpage() {
+    public synchronized String getOfficialAudioWebpage() {
+        if (officialAudioWebpage == UNRESOLVED)
+            officialAudioWebpage = getText(FRAME_WOAF);
+        
         return officialAudioWebpage;
     }
 
-    public String getOfficialInternetRadioStationHomepage() {
+    public synchronized String getOfficialInternetRadioStationHomepage() {
+        if (officialInternetRadioStationHomepage == UNRESOLVED)
+            officialInternetRadioStationHomepage = getText(FRAME_WORS);
+        
         return officialInternetRadioStationHomepage;
     }
 
-    public String getOfficialPublisherWebpage() {
+    public synchronized String getOfficialPublisherWebpage() {
+        if (officialPublisherWebpage == UNRESOLVED)
+            officialPublisherWebpage = getText(FRAME_WPUB);
+        
         return officialPublisherWebpage;
     }
 
-    public String getOriginalArtist() {
+    public synchronized String getOriginalArtist() {
+        if (originalArtist == UNRESOLVED)
+            originalArtist = getText(FRAME_TOPE);
+        
         return originalArtist;
     }
 
-    public String getOriginalFileName() {
+    public synchronized String getOriginalFileName() {
+        if (originalFileName == UNRESOLVED)
+            originalFileName = getText(FRAME_TOFN);
+        
         return originalFileName;
     }
 
-    public String getOriginalLyricist() {
+    public synchronized String getOriginalLyricist() {
+        if (originalLyricist == UNRESOLVED)
+            originalLyricist = getText(FRAME_TOLY);
+        
         return originalLyricist;
     }
 
-    public int getOriginalReleaseYear() {
+    public synchronized int getOriginalReleaseYear() {
+        if (originalReleaseYear == UNRESOLVED_NUMBER)
+            originalReleaseYear = FieldDecoder.parseYear(getText(FRAME_TDOR), 0);
+        
         return originalReleaseYear;
     }
 
-    public String getOriginalTitle() {
+    public synchronized String getOriginalTitle() {
+        if (originalTitle == UNRESOLVED)
+            originalTitle = getText(FRAME_TOAL);
+        
         return originalTitle;
     }
 
@@ -553,47 +901,96 @@ public class MediaMetadata {
         return popularity;
     }
 
-    public String getPublisher() {
+    public synchronized String getPublisher() {
+        if (publisher == UNRESOLVED)
+            publisher = getText(FRAME_TPUB);
+        
         return publisher;
     }
 
-    public Date getRecordingDate() {
+    public synchronized Date getRecordingDate() {
+        if (recordingDate == UNRESOLVED_DATE)
+            recordingDate = getRecordingTime();
+        
         return recordingDate;
     }
 
-    public Date getRecordingTime() {
+    public synchronized Date getRecordingTime() {
+        if (recordingTime == UNRESOLVED_DATE)
+            recordingTime = toDate(FieldDecoder.parseTimestamp(getText(FRAME_TDRC)));
+        
         return recordingTime;
     }
 
-    public Date getReleaseTime() {
+    public synchronized Date getReleaseTime() {
+        if (releaseTime == UNRESOLVED_DATE)
+            releaseTime = toDate(FieldDecoder.parseTimestamp(getText(FRAME_TDRL)));
+        
         return releaseTime;
     }
 
-    public String getSongConductor() {
+    public synchronized String getSongConductor() {
+        if (songConductor == UNRESOLVED)
+            songConductor = getText(FRAME_TPE3);
+        
         return songConductor;
     }
 
-    public String getSongName() {
+    public synchronized String getSongName() {
+        if (songName == UNRESOLVED)
+            songName = getText(FRAME_TIT2);
+        
         return songName;
     }
 
-    public String getSubTitle() {
+    public synchronized String getSubTitle() {
+        if (subTitle == UNRESOLVED)
+            subTitle = getText(FRAME_TIT3);
+        
         return subTitle;
     }
 
-    public String getAlbumName() {
+    public synchronized String getAlbumName() {
+        if (albumName == UNRESOLVED)
+            albumName = getText(FRAME_TALB);
+        
         return albumName;
     }
 
-    public int getTrackNumber() {
+    public synchronized int getTrackNumber() {
+        if (trackNumber == UNRESOLVED_NUMBER)
+            trackNumber = FieldDecoder.parseNumber(getText(FRAME_TRCK), 0);
+        
         return trackNumber;
     }
 
-    public String getUfid() {
+    /**
+     * Gets, the number of tracks in the album from a "n/total" track number.
+     * @return Number of tracks or 0 if not known.
+     */
+    public synchronized int getTrackCount() {
+        if (trackCount == UNRESOLVED_NUMBER)
+            trackCount = FieldDecoder.parseTotal(getText(FRAME_TRCK), 0);
+        
+        return trackCount;
+    }
+
+    public synchronized String getUfid() {
+        if (ufid == UNRESOLVED)
+            ufid = getText(FRAME_UFID);
+        
         return ufid;
     }
 
-    public int getYear() {
+    public synchronized int getYear() {
+        if (year == UNRESOLVED_NUMBER) {
+            year = FieldDecoder.parseYear(getText(FRAME_TYER), 0);
+            
+            // Recording time replaces TYER in ID3v2.4
+            if (year == 0)
+                year = FieldDecoder.parseYear(getText(FRAME_TDRC), 0);
+        }
+        
         return year;
     }
 }
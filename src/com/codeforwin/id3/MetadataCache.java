@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import static com.codeforwin.id3.ID3.HEADER_SIZE;
+import static com.codeforwin.id3.ID3.unpackInteger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * <code>MetadataCache</code> keeps the ID3 tags of media files in memory so
+ * that repeated reads of the same media files do not read them again. Cached
+ * tags are weighted by the bytes they retain, the raw tag data, and the least
+ * recently used tags are evicted once their total weight exceeds the budget. A
+ * tag with a large album art therefore takes the room of many small text-only
+ * tags.
+ * <br>
+ * Only the immutable tag data is cached. Every lookup returns a new instance of
+ * <code>ID3Metadata</code> over that data, which belongs to the caller alone:
+ * its frames are decoded on demand and may be modified like those of a parsed
+ * media file. Every lookup also checks the size and the last modified time of
+ * the file and reads the file again if it has changed.
+ * <br>
+ * All methods are thread safe. Files are parsed outside the lock, so a slow
+ * file never blocks lookups of other files.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ */
+public final class MetadataCache {
+
+    /**
+     * Estimated bytes retained by a cache entry besides the tag data.
+     */
+    static final int ENTRY_OVERHEAD = 256;
+
+
+    /**
+     * Cached tag of a single file.
+     */
+    private static final class Entry {
+        /**
+         * Read-only ID3 header and tag data, both null if the file has no tag.
+         */
+        final ByteBuffer header;
+        final ByteBuffer tag;
+        final long fileSize;
+        final long lastModified;
+        final long weight;
+
+        Entry(ByteBuffer header, ByteBuffer tag, long fileSize, long lastModified) {
+            this.header         = header;
+            this.tag            = tag;
+            this.fileSize       = fileSize;
+            this.lastModified   = lastModified;
+
+            // Bytes retained on the heap, decoded frames belong to the callers
+            this.weight         = (tag == null) ? ENTRY_OVERHEAD : ENTRY_OVERHEAD + HEADER_SIZE + (long) tag.capacity();
+        }
+
+        /**
+         * Creates a new instance of ID3Metadata over the cached tag data.
+         */
+        ID3Metadata newMetadata(File file) {
+            if(header == null)
+                return null;
+
+            ID3Metadata metadata = ID3Metadata.fromHeader(file, header);
+            metadata.setTag(tag.duplicate());
+
+            return metadata;
+        }
+    }
+
+
+    private final long maxWeight;
+
+    /**
+     * Entries in least recently used order.
+     */
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long weight;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+
+    /**
+     * Creates a new cache retaining at most <code>maxWeight</code> bytes.
+     * @param maxWeight Heap budget of the cache in bytes.
+     */
+    public MetadataCache(long maxWeight) {
+        if(maxWeight < 0)
+            throw new IllegalArgumentException("Maximum weight must not be negative.");
+
+        this.maxWeight = maxWeight;
+    }
+
+
+    /**
+     * Gets, the tag of a media file from the cache, reading the file if it is
+     * not cached or has changed since it was cached.
+     *
+     * @param file Media file.
+     * @return New instance of <code>ID3Metadata</code> owned by the caller if
+     * the file contains valid ID3 tag otherwise null.
+     * @throws IOException If the media file cannot be read.
+     * @see ID3Metadata#parseMedia(File)
+     */
+    public ID3Metadata get(File file) throws IOException {
+        Path path = file.toPath().toAbsolutePath().normalize();
+
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            invalidate(file);
+            throw ex;
+        }
+
+        long fileSize       = attrs.size();
+        long lastModified   = attrs.lastModifiedTime().toMillis();
+
+        Entry entry;
+
+        synchronized (this) {
+            entry = entries.get(path);
+
+            if(entry != null && entry.fileSize == fileSize && entry.lastModified == lastModified) {
+                hitCount++;
+            } else {
+                entry = null;
+                missCount++;
+            }
+        }
+
+        if(entry == null) {
+            entry = load(path, fileSize, lastModified);
+            put(path, entry);
+        }
+
+        return entry.newMetadata(file);
+    }
+
+
+    /**
+     * Reads the ID3 header and the whole tag of a media file into the heap.
+     */
+    private static Entry load(Path path, long fileSize, long lastModified) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+            if(TagLoader.readFully(channel, header, 0) != HEADER_SIZE || !ID3Probe.isValidHeader(header))
+                return new Entry(null, null, fileSize, lastModified);
+
+            ByteBuffer tag = TagLoader.load(channel, HEADER_SIZE, unpackInteger(header, 6));
+
+            return new Entry(header.asReadOnlyBuffer(), tag.asReadOnlyBuffer(), fileSize, lastModified);
+        } catch (IOException ex) {
+            IOException exception;
+
+            if(ex instanceof NoSuchFileException) {
+                exception = new FileNotFoundException("File not found");
+            } else {
+                exception = new IOException("Unable to read media.");
+            }
+
+            exception.initCause(ex);
+            throw exception;
+        }
+    }
+
+
+    private synchronized void put(Path path, Entry entry) {
+        Entry previous = entries.remove(path);
+
+        if(previous != null)
+            weight -= previous.weight;
+
+        // Never cache a tag larger than the whole budget
+        if(entry.weight > maxWeight)
+            return;
+
+        entries.put(path, entry);
+        weight += entry.weight;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+
+        while(weight > maxWeight && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+
+            weight -= evicted.weight;
+            evictionCount++;
+        }
+    }
+
+
+    /**
+     * Removes a media file from the cache.
+     * @param file Media file.
+     */
+    public synchronized void invalidate(File file) {
+        Entry entry = entries.remove(file.toPath().toAbsolutePath().normalize());
+
+        if(entry != null)
+            weight -= entry.weight;
+    }
+
+
+    /**
+     * Removes all media files from the cache.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        weight = 0;
+    }
+
+
+    /**
+     * Gets, the number of cached media files.
+     * @return Number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Gets, the estimated number of bytes retained by the cache.
+     * @return Total weight of all entries.
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+
+    /**
+     * Gets, the heap budget of the cache.
+     * @return Maximum weight in bytes.
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+
+    /**
+     * Gets, the number of lookups answered from the cache.
+     * @return Number of hits.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+
+    /**
+     * Gets, the number of lookups which parsed the media file.
+     * @return Number of misses.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+
+    /**
+     * Gets, the number of entries evicted to stay within the budget.
+     * @return Number of evictions.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("MetadataCache[");
+
+        builder.append("size=").append(entries.size())
+               .append(", weight=").append(weight).append('/').append(maxWeight)
+               .append(", hits=").append(hitCount)
+               .append(", misses=").append(missCount)
+               .append(", evictions=").append(evictionCount)
+               .append(']');
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,570 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <code>MetadataIndex</code> persists the decoded metadata and the frame table
+ * of contents of media files, so that unchanged files can be loaded without
+ * reading them again. An entry is only used while the size and the last
+ * modified time of the file still match those recorded in the index.
+ * <br>
+ * The index file is an append-only log of records. Every stored or removed
+ * file appends a record and the latest record of a file wins. Records that
+ * have been superseded are dropped by <code>compact()</code>, which runs
+ * automatically once they outnumber the live entries. A record torn by a crash
+ * is detected by its checksum and discarded when the index is opened.
+ * <br>
+ * The whole index is held in memory. All methods are thread safe.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ * @see MediaMetadata#open(java.io.File, MetadataIndex)
+ */
+public final class MetadataIndex implements Closeable {
+
+    /**
+     * Identifier at the start of every index file, "ID3I".
+     */
+    private static final int MAGIC          = 0x49443349;
+    private static final int VERSION        = 1;
+    private static final int FILE_HEADER    = 8;
+
+    private static final byte RECORD_ENTRY  = 1;
+    private static final byte RECORD_REMOVE = 2;
+
+    /**
+     * Number of superseded records below which the index is never compacted.
+     */
+    private static final int MIN_GARBAGE    = 1024;
+
+    private static final int BUFFER_SIZE    = 64 * 1024; // 64 KB
+
+
+    /**
+     * Indexed metadata of a single media file.
+     */
+    static final class Entry {
+        final long fileSize;
+        final long lastModified;
+
+        /**
+         * Size of the ID3 tag, 0 if the file has no tag.
+         */
+        final int tagSize;
+
+        /**
+         * Table of contents of the tag, offsets relative to the tag data.
+         */
+        final int[] frameCodes;
+        final int[] frameOffsets;
+        final int[] frameSizes;
+        final int[] frameFlags;
+
+        /**
+         * Decoded text of each text and comment frame, in tag order.
+         */
+        final int[] fieldCodes;
+        final String[] fieldValues;
+
+        Entry(long fileSize, long lastModified, int tagSize, int[] frameCodes, int[] frameOffsets,
+                int[] frameSizes, int[] frameFlags, int[] fieldCodes, String[] fieldValues) {
+            this.fileSize       = fileSize;
+            this.lastModified   = lastModified;
+            this.tagSize        = tagSize;
+            this.frameCodes     = frameCodes;
+            this.frameOffsets   = frameOffsets;
+            this.frameSizes     = frameSizes;
+            this.frameFlags     = frameFlags;
+            this.fieldCodes     = fieldCodes;
+            this.fieldValues    = fieldValues;
+        }
+
+        /**
+         * Gets, whether the entry still describes the file.
+         */
+        boolean matches(long fileSize, long lastModified) {
+            return this.fileSize == fileSize && this.lastModified == lastModified;
+        }
+    }
+
+
+    private final Path indexFile;
+
+    private final HashMap<String, Entry> entries = new HashMap<>();
+
+    private FileChannel channel;
+    private DataOutputStream out;
+
+    /**
+     * Number of records in the index file which have been superseded.
+     */
+    private int garbage;
+
+
+    /**
+     * Opens the index stored in the given file, creating it if it does not
+     * exist.
+     * @param indexFile File in which the index is stored.
+     * @throws IOException If the file is not a metadata index or cannot be read.
+     */
+    public MetadataIndex(Path indexFile) throws IOException {
+        this.indexFile = indexFile;
+
+        try {
+            channel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+
+            load();
+
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+        } catch (IOException ex) {
+            closeQuietly();
+
+            IOException exception = new IOException("Unable to open metadata index.");
+            exception.initCause(ex);
+            throw exception;
+        }
+    }
+
+
+    /**
+     * Reads all records of the index file. A truncated or corrupt record ends
+     * the log and everything after it is cut off.
+     */
+    private void load() throws IOException {
+        long length = channel.size();
+
+        if(length == 0) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.write(header, 0);
+            channel.position(FILE_HEADER);
+            return;
+        }
+
+        if(length > Integer.MAX_VALUE)
+            throw new IOException("Metadata index is too large.");
+
+        ByteBuffer data = TagLoader.load(channel, 0, (int) length);
+
+        if(data.remaining() < FILE_HEADER || data.getInt() != MAGIC || data.getInt() != VERSION)
+            throw new IOException("Not a metadata index.");
+
+        CRC32 crc       = new CRC32();
+        int validEnd    = data.position();
+
+        while(data.remaining() >= 8) {
+            int recordLength    = data.getInt();
+            int checksum        = data.getInt();
+
+            if(recordLength < 0 || recordLength > data.remaining())
+                break;
+
+            ByteBuffer record = data.slice();
+            record.limit(recordLength);
+
+            crc.reset();
+            crc.update(record.duplicate());
+
+            if((int) crc.getValue() != checksum)
+                break;
+
+            try {
+                readRecord(record);
+            } catch (BufferUnderflowException | IllegalArgumentException ex) {
+                break;
+            }
+
+            data.position(data.position() + recordLength);
+            validEnd = data.position();
+        }
+
+        // Drop the torn record of an interrupted write
+        if(validEnd < length)
+            channel.truncate(validEnd);
+
+        channel.position(validEnd);
+    }
+
+
+    private void readRecord(ByteBuffer record) {
+        byte type   = record.get();
+        String key  = readString(record);
+
+        Entry previous;
+
+        if(type == RECORD_REMOVE) {
+            previous = entries.remove(key);
+            garbage++;
+        } else if(type == RECORD_ENTRY) {
+            long fileSize       = record.getLong();
+            long lastModified   = record.getLong();
+            int tagSize         = record.getInt();
+
+            int frameCount      = record.getInt();
+            int[] frameCodes    = new int[frameCount];
+            int[] frameOffsets  = new int[frameCount];
+            int[] frameSizes    = new int[frameCount];
+            int[] frameFlags    = new int[frameCount];
+
+            for(int i = 0; i < frameCount; i++) {
+                frameCodes[i]   = record.getInt();
+                frameOffsets[i] = record.getInt();
+                frameSizes[i]   = record.getInt();
+                frameFlags[i]   = record.getShort() & 0xffff;
+            }
+
+            int fieldCount          = record.getInt();
+            int[] fieldCodes        = new int[fieldCount];
+            String[] fieldValues    = new String[fieldCount];
+
+            for(int i = 0; i < fieldCount; i++) {
+                fieldCodes[i]   = record.getInt();
+                fieldValues[i]  = readString(record);
+            }
+
+            previous = entries.put(key, new Entry(fileSize, lastModified, tagSize, frameCodes, frameOffsets,
+                    frameSizes, frameFlags, fieldCodes, fieldValues));
+        } else {
+            throw new IllegalArgumentException("Unknown record type " + type);
+        }
+
+        if(previous != null)
+            garbage++;
+    }
+
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+
+        if(length < 0)
+            return null;
+
+        if(length > record.remaining())
+            throw new BufferUnderflowException();
+
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Gets, the indexed metadata of a file if it has not changed since it was
+     * stored.
+     * @param file Media file.
+     * @param fileSize Current size of the file.
+     * @param lastModified Current last modified time of the file in milliseconds.
+     * @return Indexed metadata or null if the file is not indexed or has changed.
+     */
+    synchronized Entry get(Path file, long fileSize, long lastModified) {
+        Entry entry = entries.get(keyOf(file));
+
+        return (entry != null && entry.matches(fileSize, lastModified)) ? entry : null;
+    }
+
+
+    /**
+     * Stores the metadata of a file, replacing any previous entry.
+     * @param file Media file.
+     * @param entry Metadata of the file.
+     * @throws IOException If the record cannot be appended to the index file.
+     */
+    synchronized void put(Path file, Entry entry) throws IOException {
+        String key = keyOf(file);
+
+        append(RECORD_ENTRY, key, entry);
+
+        if(entries.put(key, entry) != null)
+            garbage++;
+
+        compactIfNeeded();
+    }
+
+
+    /**
+     * Removes a file from the index.
+     * @param file Media file to be removed.
+     * @return True if the file was indexed.
+     * @throws IOException If the record cannot be appended to the index file.
+     */
+    public synchronized boolean remove(Path file) throws IOException {
+        String key = keyOf(file);
+
+        if(!entries.containsKey(key))
+            return false;
+
+        append(RECORD_REMOVE, key, null);
+
+        entries.remove(key);
+        garbage += 2;
+
+        compactIfNeeded();
+
+        return true;
+    }
+
+
+    /**
+     * Checks whether a file is indexed, regardless of whether it has changed.
+     * @param file Media file.
+     * @return True if the index contains an entry for the file.
+     */
+    public synchronized boolean contains(Path file) {
+        return entries.containsKey(keyOf(file));
+    }
+
+
+    /**
+     * Gets, the number of files in the index.
+     * @return Number of indexed files.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Gets, the number of superseded records in the index file.
+     * @return Number of records dropped by the next compaction.
+     */
+    public synchronized int getGarbage() {
+        return garbage;
+    }
+
+
+    private void compactIfNeeded() throws IOException {
+        if(garbage >= MIN_GARBAGE && garbage > entries.size())
+            compact();
+    }
+
+
+    /**
+     * Rewrites the index file with only the live entries. The new file replaces
+     * the old one atomically, so the index is never lost halfway. The index
+     * file is closed while it is replaced, as Windows does not replace open
+     * files, and reopened afterwards whether or not the replacement succeeded.
+     * If it cannot be reopened the index is closed.
+     * @throws IOException If the index file cannot be written.
+     */
+    public synchronized void compact() throws IOException {
+        if(channel == null)
+            throw new IOException("Metadata index is closed.");
+
+        Path dir = indexFile.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(dir, indexFile.getFileName().toString(), ".tmp");
+
+        try {
+            try (FileChannel tempChannel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                DataOutputStream tempOut = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(tempChannel), BUFFER_SIZE));
+
+                tempOut.writeInt(MAGIC);
+                tempOut.writeInt(VERSION);
+
+                for(Map.Entry<String, Entry> entry : entries.entrySet())
+                    writeRecord(tempOut, RECORD_ENTRY, entry.getKey(), entry.getValue());
+
+                tempOut.flush();
+                tempChannel.force(true);
+            }
+
+            out.flush();
+            closeQuietly();
+
+            try {
+                try {
+                    Files.move(tempFile, indexFile, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                // The compacted file, or the original one if it was not replaced
+                reopen();
+            }
+
+            garbage = 0;
+        } catch (IOException ex) {
+            Files.deleteIfExists(tempFile);
+
+            IOException exception = new IOException("Unable to compact metadata index.");
+            exception.initCause(ex);
+            throw exception;
+        }
+    }
+
+
+    /**
+     * Writes all buffered records to the index file.
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        if(channel == null)
+            throw new IOException("Metadata index is closed.");
+
+        out.flush();
+    }
+
+
+    /**
+     * Writes all buffered records and closes the index file.
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(channel == null)
+            return;
+
+        try {
+            out.flush();
+        } finally {
+            closeQuietly();
+        }
+    }
+
+
+    /**
+     * Opens the index file for appending. The index stays closed if the file
+     * cannot be opened.
+     */
+    private void reopen() throws IOException {
+        FileChannel reopened = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            reopened.position(reopened.size());
+        } catch (IOException ex) {
+            reopened.close();
+            throw ex;
+        }
+
+        channel = reopened;
+        out     = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+    }
+
+
+    private void closeQuietly() {
+        try {
+            if(channel != null)
+                channel.close();
+        } catch (IOException e) {
+            // Nothing left to write
+        }
+
+        channel = null;
+    }
+
+
+    private void append(byte type, String key, Entry entry) throws IOException {
+        if(channel == null)
+            throw new IOException("Metadata index is closed.");
+
+        writeRecord(out, type, key, entry);
+    }
+
+
+    /**
+     * Writes a record as its length, its CRC32 checksum and the record data.
+     */
+    private static void writeRecord(OutputStream output, byte type, String key, Entry entry) throws IOException {
+        RecordBuffer record    = new RecordBuffer();
+        DataOutputStream data   = new DataOutputStream(record);
+
+        data.writeByte(type);
+        writeString(data, key);
+
+        if(entry != null) {
+            data.writeLong(entry.fileSize);
+            data.writeLong(entry.lastModified);
+            data.writeInt(entry.tagSize);
+
+            data.writeInt(entry.frameCodes.length);
+            for(int i = 0; i < entry.frameCodes.length; i++) {
+                data.writeInt(entry.frameCodes[i]);
+                data.writeInt(entry.frameOffsets[i]);
+                data.writeInt(entry.frameSizes[i]);
+                data.writeShort(entry.frameFlags[i]);
+            }
+
+            data.writeInt(entry.fieldCodes.length);
+            for(int i = 0; i < entry.fieldCodes.length; i++) {
+                data.writeInt(entry.fieldCodes[i]);
+                writeString(data, entry.fieldValues[i]);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record.buffer(), 0, record.size());
+
+        DataOutputStream header = new DataOutputStream(output);
+        header.writeInt(record.size());
+        header.writeInt((int) crc.getValue());
+        header.write(record.buffer(), 0, record.size());
+    }
+
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        if(value == null) {
+            data.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+
+    private static String keyOf(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+
+    /**
+     * Byte array output stream exposing its buffer, so that records are not
+     * copied before being written.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(256);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+/**
+ * <code>PaddingPolicy</code> decides how many zero bytes of padding are appended
+ * to an ID3 tag when the whole media file has to be rewritten. Padding leaves
+ * room for later edits, so that they can be written in place without moving
+ * the media data.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface PaddingPolicy {
+
+    /**
+     * Default padding added to newly written tags.
+     */
+    public final static int DEFAULT_PADDING = 1024; // 1 KB
+
+    /**
+     * Never adds any padding.
+     */
+    public final static PaddingPolicy NONE = (framesSize) -> 0;
+
+    /**
+     * Adds <code>DEFAULT_PADDING</code> bytes of padding.
+     */
+    public final static PaddingPolicy DEFAULT = fixed(DEFAULT_PADDING);
+
+
+    /**
+     * Gets, the number of padding bytes to be added after the frames.
+     * @param framesSize Total size of all packed frames including their headers.
+     * @return Number of padding bytes, must not be negative.
+     */
+    int getPadding(int framesSize);
+
+
+    /**
+     * Creates a policy which always adds the given number of padding bytes.
+     * @param padding Number of padding bytes.
+     * @return Instance of PaddingPolicy
+     */
+    public static PaddingPolicy fixed(int padding) {
+        if(padding < 0)
+            throw new IllegalArgumentException("Padding must not be negative.");
+
+        return (framesSize) -> padding;
+    }
+
+
+    /**
+     * Creates a policy which adds padding proportional to the size of the frames,
+     * but never less than <code>minimum</code> bytes.
+     * @param percent Percentage of the frames size to be added as padding.
+     * @param minimum Minimum number of padding bytes.
+     * @return Instance of PaddingPolicy
+     */
+    public static PaddingPolicy proportional(int percent, int minimum) {
+        if(percent < 0 || minimum < 0)
+            throw new IllegalArgumentException("Padding must not be negative.");
+
+        return (framesSize) -> Math.max(minimum, (int) ((long) framesSize * percent / 100));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import static com.codeforwin.id3.ID3.HEADER_SIZE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+
+/**
+ * <code>ParseContext</code> holds the buffers reused by a thread while it parses
+ * media files: one for the 10 byte ID3 and frame headers, one for whole tags and
+ * the characters and decoders used to decode text. Scanning many files this way
+ * allocates no buffers per file.
+ * <br>
+ * The tag buffer is overwritten by the next tag loaded on the same thread, so
+ * frames parsed from it must not outlive the scan of their file. Tags of
+ * <code>POOL_LIMIT</code> bytes or more are read into a buffer of their own, so
+ * that a single huge tag does not stay pinned by the thread.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ * @see ID3Probe
+ */
+final class ParseContext {
+
+    private static final ThreadLocal<ParseContext> CONTEXTS = ThreadLocal.withInitial(ParseContext::new);
+
+    /**
+     * Initial capacity of the tag buffer, enough for most tags without art.
+     */
+    private static final int INITIAL_TAG_CAPACITY = 16 * 1024; // 16 KB
+
+    /**
+     * Largest tag loaded into the pooled tag buffer.
+     */
+    static final int POOL_LIMIT = 256 * 1024; // 256 KB
+
+    /**
+     * Longest text decoded into the pooled characters, longer texts such as
+     * lyrics get a buffer of their own.
+     */
+    private static final int MAX_POOLED_CHARS = 64 * 1024;
+
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+    private ByteBuffer tag = ByteBuffer.allocate(INITIAL_TAG_CAPACITY);
+
+    private CharBuffer chars = CharBuffer.allocate(256);
+
+    private final HashMap<Charset, CharsetDecoder> decoders = new HashMap<>();
+
+
+    private ParseContext() { }
+
+
+    /**
+     * Gets, the context of the calling thread.
+     * @return Parse context of the current thread.
+     */
+    static ParseContext get() {
+        return CONTEXTS.get();
+    }
+
+
+    /**
+     * Gets, the header buffer, cleared and ready to be filled.
+     * @return Buffer of 10 bytes.
+     */
+    ByteBuffer header() {
+        header.clear();
+
+        return header;
+    }
+
+
+    /**
+     * Loads <code>length</code> bytes of the channel starting at <code>position</code>
+     * into the pooled tag buffer, see <code>TagLoader.load()</code>. The buffer
+     * grows as needed up to <code>POOL_LIMIT</code>, larger regions are read
+     * into a new buffer.
+     *
+     * @param channel Channel of the media file.
+     * @param position Absolute position of the region in the file.
+     * @param length Number of bytes to load.
+     * @return Buffer containing the region, positioned at 0. It is valid until
+     * the next tag is loaded by the calling thread.
+     * @throws IOException
+     */
+    ByteBuffer load(FileChannel channel, long position, int length) throws IOException {
+        long available = Math.max(0, channel.size() - position);
+
+        // Truncated media, load only what exists
+        if(length > available)
+            length = (int) available;
+
+        if(length >= POOL_LIMIT)
+            return TagLoader.load(channel, position, length);
+
+        if(length > tag.capacity())
+            tag = ByteBuffer.allocate(Math.min(POOL_LIMIT, Math.max(length, tag.capacity() * 2)));
+
+        tag.clear();
+        tag.limit(length);
+
+        TagLoader.readFully(channel, tag, position);
+        tag.flip();
+
+        return tag.slice();
+    }
+
+
+    /**
+     * Gets, a cleared character buffer of at least the given capacity. It is
+     * valid until the next call on the same thread.
+     * @param capacity Number of characters needed.
+     * @return Character buffer backed by an array.
+     */
+    CharBuffer chars(int capacity) {
+        if(capacity > MAX_POOLED_CHARS)
+            return CharBuffer.allocate(capacity);
+
+        if(capacity > chars.capacity())
+            chars = CharBuffer.allocate(Math.min(MAX_POOLED_CHARS, Math.max(capacity, chars.capacity() * 2)));
+
+        chars.clear();
+
+        return chars;
+    }
+
+
+    /**
+     * Gets, the decoder of the charset, reset and ready to decode. Malformed
+     * and unmappable input is replaced, as by <code>new String(byte[], Charset)</code>.
+     * @param charset Charset of the text.
+     * @return Decoder owned by the calling thread.
+     */
+    CharsetDecoder decoder(Charset charset) {
+        CharsetDecoder decoder = decoders.get(charset);
+
+        if(decoder == null) {
+            decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+            decoders.put(charset, decoder);
+        }
+
+        return decoder.reset();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <code>TagLoader</code> reads a complete ID3 tag region from a media file with
+ * a single positioned read, so that frames can be parsed from memory instead of
+ * issuing small reads per frame.
+ * <br>
+ * Regions are always copied into the heap, never memory mapped. A mapping keeps
+ * the file open until it is garbage collected, and on Windows a mapped file can
+ * neither be truncated nor replaced, which tag rewrites and the metadata index
+ * both do.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ */
+final class TagLoader {
+
+    private TagLoader() { }
+
+
+    /**
+     * Loads <code>length</code> bytes of the channel starting at <code>position</code>.
+     * The region is read into a new heap buffer. If the file is shorter than the
+     * requested region only the available bytes are returned.
+     *
+     * @param channel Channel of the media file.
+     * @param position Absolute position of the region in the file.
+     * @param length Number of bytes to load.
+     * @return Buffer containing the region, positioned at 0.
+     * @throws IOException
+     */
+    static ByteBuffer load(FileChannel channel, long position, int length) throws IOException {
+        long available = Math.max(0, channel.size() - position);
+
+        // Truncated media, load only what exists
+        if(length > available)
+            length = (int) available;
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, position);
+        buffer.flip();
+
+        return buffer;
+    }
+
+
+    /**
+     * Reads from the channel at the given position until the buffer is full or
+     * end of file is reached.
+     *
+     * @param channel Channel to read from.
+     * @param buffer Buffer to be filled.
+     * @param position Absolute file position to start reading from.
+     * @return Total number of bytes read.
+     * @throws IOException
+     */
+    static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+
+        while(buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+
+            if(read < 0)
+                break;
+
+            total += read;
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import static com.codeforwin.id3.ID3.HEADER_SIZE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * <code>TagVersion</code> identifies the ID3 tag of a media file as it was read
+ * from or written to the file. Frames record the version of the tag they are
+ * stored in, and their bytes in the media file are reused only while the file
+ * still holds that version: not for frames moved from another tag, and not
+ * once the file has been changed by someone else, e.g. another instance of
+ * <code>ID3Metadata</code> over the same file.
+ * <br>
+ * A version is recognized by the CRC32 checksum of the tag data. The checksum
+ * of a loaded tag is computed from the loaded data when it is first needed.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ */
+final class TagVersion {
+
+    /**
+     * Media file holding the tag.
+     */
+    private final Path file;
+
+    /**
+     * Size of the tag data following the 10 byte header.
+     */
+    private final int length;
+
+    /**
+     * Tag data the checksum has not been computed from yet, null afterwards.
+     */
+    private ByteBuffer tag;
+
+    private int checksum;
+
+
+    private TagVersion(Path file, int length, ByteBuffer tag, int checksum) {
+        this.file       = file;
+        this.length     = length;
+        this.tag        = tag;
+        this.checksum   = checksum;
+    }
+
+
+    /**
+     * Creates the version of a tag loaded into memory.
+     * @param file Media file the tag has been loaded from.
+     * @param tag Buffer containing the tag data following the 10 byte header.
+     * It is not modified.
+     * @return Version of the loaded tag.
+     */
+    static TagVersion of(Path file, ByteBuffer tag) {
+        return new TagVersion(file, tag.remaining(), tag.duplicate(), 0);
+    }
+
+
+    /**
+     * Reads the tag data of a media file to create its current version, e.g.
+     * after the tag has been written.
+     * @param file Media file.
+     * @param channel Channel of the media file.
+     * @param length Size of the tag data following the 10 byte header.
+     * @return Version of the stored tag.
+     * @throws IOException
+     */
+    static TagVersion read(Path file, FileChannel channel, int length) throws IOException {
+        ByteBuffer tag = TagLoader.load(channel, HEADER_SIZE, length);
+
+        return new TagVersion(file, length, null, checksum(tag));
+    }
+
+
+    /**
+     * Gets, the media file holding the tag.
+     * @return Path of the media file.
+     */
+    Path getFile() {
+        return file;
+    }
+
+
+    /**
+     * Loads the tag data of the media file if the file still holds this
+     * version of the tag.
+     * @param channel Channel of the media file.
+     * @return Buffer containing the tag data following the 10 byte header, or
+     * null if the tag has changed.
+     * @throws IOException
+     */
+    ByteBuffer load(FileChannel channel) throws IOException {
+        ByteBuffer stored = TagLoader.load(channel, HEADER_SIZE, length);
+
+        if(stored.remaining() != length || checksum(stored.duplicate()) != getChecksum())
+            return null;
+
+        return stored;
+    }
+
+
+    private int getChecksum() {
+        if(tag != null) {
+            checksum    = checksum(tag);
+            tag         = null;
+        }
+
+        return checksum;
+    }
+
+
+    private static int checksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        return (int) crc.getValue();
+    }
+}
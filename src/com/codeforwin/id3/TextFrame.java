@@ -19,10 +19,7 @@ package com.codeforwin.id3;
 import static com.codeforwin.id3.ID3.*;
 
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
 
 /**
  * TextFrame represents all valid textual content frames. 
@@ -54,14 +51,23 @@ public class TextFrame extends Frame {
 	};
 	
 	
+	/**
+	 * Decoded text, null until it is first accessed.
+	 */
 	private String textData;
 	
 	
 	
 	public TextFrame(String frameID, int size, byte[] data) {
 		super(frameID, size, data);
-		
-		textData = getString(data, encoding);
+	}
+	
+	public TextFrame(String frameID, ByteBuffer payload) {
+		super(frameID, payload);
+	}
+	
+	public TextFrame(int frameCode, ByteBuffer payload) {
+		super(frameCode, payload);
 	}
 
 	public TextFrame(String frameID, String data) {
@@ -71,7 +77,8 @@ public class TextFrame extends Frame {
 	public TextFrame(String frameID, String data, String encoding) {
 		super(frameID, getBytes(data, encoding).length, getBytes(data, encoding));
 		
-		this.encoding = encoding;
+		setEncodingName(encoding);
+		this.textData = data;
 	}
 	
 	/**
@@ -80,7 +87,11 @@ public class TextFrame extends Frame {
 	 */
 	@SuppressWarnings("unused")
 	private String getActualText() {	
-		String actualText = getString(data, encoding);
+		ByteBuffer payload = getPayload();
+		byte[] data = new byte[payload.remaining()];
+		payload.get(data);
+		
+		String actualText = getString(ByteBuffer.wrap(data), getCharset());
 		
 		int leadingCharsToRemove = 0;
 		if (data.length >= 2 		&& ((data[1] == (byte)0xfe && data[2] == (byte)0xff) || (data[1] == (byte)0xff && data[2] == (byte)0xfe))) {
@@ -112,11 +123,7 @@ public class TextFrame extends Frame {
 				System.arraycopy(data, 1 , newValue, 0, newValue.length);
 			}
 			
-			try {
-				actualText = bytesToString(newValue, encoding);//getString(newValue, encoding);
-			} catch (CharacterCodingException e) {
-				actualText = getString(newValue, encoding);
-			}
+			actualText = bytesToString(newValue, getCharset());
 		}
 		
 		return actualText;
@@ -124,15 +131,13 @@ public class TextFrame extends Frame {
 	
 	
 	/**
-	 * Converts array of byte to String.
+	 * Converts array of byte to String, up to the first terminator.
 	 * @param bytes Array of byte to be converted
-	 * @param textEncoding Encoding of the string
+	 * @param charset Charset of the string
 	 * @return Converted string
-	 * @throws CharacterCodingException
 	 */
-	private static String bytesToString(byte[] bytes, String textEncoding) throws CharacterCodingException {
-		CharBuffer cbuf = bytesToCharBuffer(bytes, textEncoding);
-		String s = cbuf.toString();
+	private static String bytesToString(byte[] bytes, Charset charset) {
+		String s = getString(ByteBuffer.wrap(bytes), charset);
 		int length = s.indexOf(0);
 		if (length == -1)
 			return s;
@@ -140,20 +145,6 @@ public class TextFrame extends Frame {
 	}
 
 	
-	/**
-	 * Converts bytes to CharBuffer.
-	 * @param bytes Array of byte to be converted
-	 * @param textEncoding Encoding of the string
-	 * @return Instance of CharBuffer
-	 * @throws CharacterCodingException
-	 */
-	private static CharBuffer bytesToCharBuffer(byte[] bytes, String textEncoding) throws CharacterCodingException {
-		Charset charset = Charset.forName(textEncoding);
-		CharsetDecoder decoder = charset.newDecoder();
-		return decoder.decode(ByteBuffer.wrap(bytes));
-	}
-	
-	
 	@Override
 	public byte[] pack() {
 		
@@ -162,9 +153,13 @@ public class TextFrame extends Frame {
 	
 
 	/**
+	 * Gets, the text of the frame. The text is decoded on first access.
 	 * @return the textData
 	 */
 	public String getTextData() {
+		if(textData == null)
+			textData = getString(getPayload(), getCharset());
+		
 		return textData;
 	}
 
@@ -174,7 +169,8 @@ public class TextFrame extends Frame {
 	 */
 	public void setTextData(String textData) {
 		this.textData 	= textData;
-		this.data		= getBytes(textData, encoding);
+		setData(getBytes(textData, encoding));
+		setModified();
 	}
 	
 	
@@ -188,6 +184,6 @@ public class TextFrame extends Frame {
 	
 	@Override
 	public String toString() {
-		return textData;
+		return getTextData();
 	}
 }
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.id3;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * <code>ThumbnailCache</code> decodes album art at a reduced size and keeps the
+ * thumbnails of the most recently used images. The image is subsampled while
+ * it is decoded, so that a large cover is never decoded at full resolution,
+ * and the result is scaled down to fit the requested size.
+ * <br>
+ * Thumbnails are keyed by the content hash of the image and the requested
+ * size, so identical covers of different tracks share one thumbnail. The cache
+ * is bounded by the total number of pixel bytes of its thumbnails. All methods
+ * are thread safe; images are decoded outside the lock.
+ *
+ * @author Pankaj Prakash
+ * @version 1.0
+ * @see ImageFrame#getThumbnail(int, int)
+ */
+public final class ThumbnailCache {
+
+    /**
+     * Default budget of the shared cache.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024; // 16 MB
+
+    private static final class DefaultHolder {
+        static final ThumbnailCache INSTANCE = new ThumbnailCache(DEFAULT_MAX_BYTES);
+    }
+
+
+    private final long maxBytes;
+
+    /**
+     * Thumbnails in least recently used order.
+     */
+    private final LinkedHashMap<String, BufferedImage> thumbnails = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+
+    private long hitCount;
+    private long missCount;
+
+
+    /**
+     * Creates a new cache holding at most <code>maxBytes</code> bytes of pixels.
+     * @param maxBytes Budget of the cache in bytes.
+     */
+    public ThumbnailCache(long maxBytes) {
+        if(maxBytes < 0)
+            throw new IllegalArgumentException("Maximum size must not be negative.");
+
+        this.maxBytes = maxBytes;
+    }
+
+
+    /**
+     * Gets, the shared cache used by <code>ImageFrame</code>.
+     * @return Default cache.
+     */
+    public static ThumbnailCache getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+
+    /**
+     * Gets, the thumbnail of the album art, decoding it if it is not cached.
+     * The aspect ratio of the image is kept and images smaller than the
+     * requested size are not enlarged.
+     *
+     * @param art Album art to be decoded.
+     * @param maxWidth Maximum width of the thumbnail.
+     * @param maxHeight Maximum height of the thumbnail.
+     * @return Thumbnail or null if the image cannot be decoded.
+     */
+    public BufferedImage get(AlbumArt art, int maxWidth, int maxHeight) {
+        if(maxWidth < 1 || maxHeight < 1)
+            throw new IllegalArgumentException("Thumbnail size must be positive.");
+
+        String key = art.getHash() + '@' + maxWidth + 'x' + maxHeight;
+
+        synchronized (this) {
+            BufferedImage thumbnail = thumbnails.get(key);
+
+            if(thumbnail != null) {
+                hitCount++;
+                return thumbnail;
+            }
+
+            missCount++;
+        }
+
+        BufferedImage thumbnail = decode(art, maxWidth, maxHeight);
+
+        if(thumbnail != null)
+            put(key, thumbnail);
+
+        return thumbnail;
+    }
+
+
+    private synchronized void put(String key, BufferedImage thumbnail) {
+        long weight = weigh(thumbnail);
+
+        if(weight > maxBytes)
+            return;
+
+        BufferedImage previous = thumbnails.put(key, thumbnail);
+
+        if(previous != null)
+            bytes -= weigh(previous);
+
+        bytes += weight;
+
+        Iterator<BufferedImage> eldest = thumbnails.values().iterator();
+
+        while(bytes > maxBytes && eldest.hasNext()) {
+            bytes -= weigh(eldest.next());
+            eldest.remove();
+        }
+    }
+
+
+    private static long weigh(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
+
+    /**
+     * Decodes the album art at a reduced size without caching it.
+     * @param art Album art to be decoded.
+     * @param maxWidth Maximum width of the thumbnail.
+     * @param maxHeight Maximum height of the thumbnail.
+     * @return Thumbnail or null if the image cannot be decoded.
+     */
+    public static BufferedImage decode(AlbumArt art, int maxWidth, int maxHeight) {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(art.openStream())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+
+            if(!readers.hasNext())
+                return null;
+
+            ImageReader reader = readers.next();
+
+            try {
+                reader.setInput(input, true, true);
+
+                int width   = reader.getWidth(0);
+                int height  = reader.getHeight(0);
+
+                /**
+                 * Read only every n-th pixel of every n-th row, with n chosen
+                 * so that the decoded image is still at least as large as the
+                 * thumbnail.
+                 */
+                int subsampling = Math.max(1, Math.min(width / maxWidth, height / maxHeight));
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                return scale(reader.read(0, param), maxWidth, maxHeight);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Scales the image down to fit into the given size, keeping its aspect ratio.
+     */
+    private static BufferedImage scale(BufferedImage image, int maxWidth, int maxHeight) {
+        int width   = image.getWidth();
+        int height  = image.getHeight();
+
+        if(width <= maxWidth && height <= maxHeight)
+            return image;
+
+        double ratio = Math.min((double) maxWidth / width, (double) maxHeight / height);
+
+        int scaledWidth     = Math.max(1, (int) Math.round(width * ratio));
+        int scaledHeight    = Math.max(1, (int) Math.round(height * ratio));
+
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage scaled = new BufferedImage(scaledWidth, scaledHeight, type);
+
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        return scaled;
+    }
+
+
+    /**
+     * Removes all thumbnails from the cache.
+     */
+    public synchronized void clear() {
+        thumbnails.clear();
+        bytes = 0;
+    }
+
+
+    /**
+     * Gets, the number of cached thumbnails.
+     * @return Number of thumbnails.
+     */
+    public synchronized int size() {
+        return thumbnails.size();
+    }
+
+
+    /**
+     * Gets, the number of pixel bytes held by the cache.
+     * @return Total size of all thumbnails.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+
+    /**
+     * Gets, the budget of the cache.
+     * @return Maximum size in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+
+    /**
+     * Gets, the number of thumbnails answered from the cache.
+     * @return Number of hits.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+
+    /**
+     * Gets, the number of thumbnails which had to be decoded.
+     * @return Number of misses.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
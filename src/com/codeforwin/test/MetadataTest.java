@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.test;
+
+import com.codeforwin.id3.MediaMetadata;
+import com.codeforwin.id3.MetadataIndex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of the fields resolved by <code>MediaMetadata</code>.
+ *
+ * @author Pankaj Prakash
+ */
+public class MetadataTest {
+
+    private static int failures = 0;
+
+
+    public static void main(String[] args) throws Exception {
+        uniqueFileIdentifier();
+        sharedBetweenThreads();
+
+        if(failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+
+        System.out.println("All checks passed");
+    }
+
+
+    /**
+     * The identifier of the UFID frame is resolved from the parsed tag as well
+     * as from the index.
+     */
+    private static void uniqueFileIdentifier() throws IOException {
+        File file = createMedia();
+
+        check("f0e1d2c3".equals(new MediaMetadata(file).getUfid()), "ufid from tag");
+
+        Path indexFile = Files.createTempFile("index", ".bin");
+        indexFile.toFile().deleteOnExit();
+        MetadataIndex index = new MetadataIndex(indexFile);
+
+        check("f0e1d2c3".equals(MediaMetadata.open(file, index).getUfid()), "ufid indexed");
+        check("f0e1d2c3".equals(MediaMetadata.open(file, index).getUfid()), "ufid from index");
+    }
+
+
+    /**
+     * Fields of one instance read by several threads at once resolve to the
+     * same values.
+     */
+    private static void sharedBetweenThreads() throws Exception {
+        File file = createMedia();
+        AtomicInteger wrong = new AtomicInteger();
+
+        for(int round = 0; round < 200; round++) {
+            MediaMetadata metadata = new MediaMetadata(file);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+
+            for(int i = 0; i < 4; i++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+
+                        if(!metadata.getSongName().endsWith("Song") || metadata.getTrackNumber() != 3
+                                || !"f0e1d2c3".equals(metadata.getUfid()))
+                            wrong.incrementAndGet();
+                    } catch (RuntimeException | InterruptedException e) {
+                        wrong.incrementAndGet();
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+
+            start.countDown();
+
+            for(Thread thread : threads)
+                thread.join();
+        }
+
+        check(wrong.get() == 0, "fields read by several threads");
+    }
+
+
+    private static void check(boolean passed, String name) {
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+
+        if(!passed)
+            failures++;
+    }
+
+
+    /**
+     * Creates a temporary media file with a title, a track number and a unique
+     * file identifier.
+     */
+    private static File createMedia() throws IOException {
+        ByteArrayOutputStream ufid = new ByteArrayOutputStream();
+        ufid.write("http://example.org".getBytes(StandardCharsets.ISO_8859_1));
+        ufid.write(0);
+        ufid.write("f0e1d2c3".getBytes(StandardCharsets.ISO_8859_1));
+
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        PackTest.writeFrame(frames, "TIT2", PackTest.text("Song"));
+        PackTest.writeFrame(frames, "TRCK", PackTest.text("3/12"));
+        PackTest.writeFrame(frames, "UFID", ufid.toByteArray());
+        frames.write(new byte[100]);
+
+        return PackTest.createMedia(frames.toByteArray());
+    }
+}
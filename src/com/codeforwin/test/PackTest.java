@@ -0,0 +1,460 @@
+/*
+ * Copyright (C) 2017 Pankaj Prakash
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.codeforwin.test;
+
+import com.codeforwin.id3.AlbumArtStore;
+import com.codeforwin.id3.Frame;
+import com.codeforwin.id3.ID3Metadata;
+import com.codeforwin.id3.ImageFrame;
+import com.codeforwin.id3.TextFrame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Round trip tests of <code>ID3Metadata.pack()</code>. Each test writes a
+ * media file, packs its tag, parses it again and compares the frames and the
+ * audio data following the tag.
+ *
+ * @author Pankaj Prakash
+ */
+public class PackTest {
+
+    /**
+     * Image bytes, starting with the PNG signature.
+     */
+    private static final byte[] IMAGE = new byte[2000];
+
+    private static int failures = 0;
+
+    static {
+        new Random(17).nextBytes(IMAGE);
+        System.arraycopy(new byte[] { (byte) 0x89, 'P', 'N', 'G', 13, 10, 26, 10 }, 0, IMAGE, 0, 8);
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        shrinkInPlace();
+        growPastPadding();
+        removeFrames();
+        releasedImage();
+        streamedImage();
+        imageMovedFromOtherTag();
+        frameMovedFromOtherTag();
+        tagChangedByOtherInstance();
+        dataReadWithoutChange();
+
+        if(failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+
+        System.out.println("All checks passed");
+    }
+
+
+    /**
+     * A tag which gets smaller is overwritten in place, the space left over is
+     * added to the padding.
+     */
+    private static void shrinkInPlace() throws IOException {
+        File file = createMedia(100, "Song Name", "Artist", IMAGE);
+        byte[] audio = audioOf(file);
+
+        ID3Metadata id3 = ID3Metadata.parseMedia(file);
+        TextFrame title = (TextFrame) id3.getFrame("TIT2");
+        int size    = id3.getSize();
+        int padding = id3.getPadding();
+
+        title.setTextData("\0Song");
+        id3.pack();
+
+        ID3Metadata packed = ID3Metadata.parseMedia(file);
+        check(textOf(packed, "TIT2").equals("Song") && textOf(packed, "TPE1").equals("Artist"), "shrink frames");
+        check(packed.getSize() == size && packed.getPadding() == padding + 5, "shrink keeps tag size");
+        check(sameFrames(id3, packed), "shrink frames in memory");
+        check(Arrays.equals(IMAGE, imageOf(packed)), "shrink image");
+        check(Arrays.equals(audio, audioOf(file)), "shrink audio");
+    }
+
+
+    /**
+     * A tag which outgrows its padding is written to a new media file, which
+     * replaces the original one. The instance can be packed again afterwards.
+     */
+    private static void growPastPadding() throws IOException {
+        File file = createMedia(10, "Song", "Artist", IMAGE);
+        byte[] audio = audioOf(file);
+        char[] title = new char[300];
+        Arrays.fill(title, 'x');
+
+        ID3Metadata id3 = ID3Metadata.parseMedia(file);
+        int size = id3.getSize();
+
+        ((TextFrame) id3.getFrame("TIT2")).setTextData("\0" + new String(title));
+        id3.pack();
+
+        ID3Metadata packed = ID3Metadata.parseMedia(file);
+        check(packed.getSize() > size + 290, "grow rewrites tag");
+        check(textOf(packed, "TIT2").equals(new String(title)) && textOf(packed, "TPE1").equals("Artist"),
+                "grow frames");
+        check(sameFrames(id3, packed), "grow frames in memory");
+        check(Arrays.equals(IMAGE, imageOf(packed)), "grow image");
+        check(Arrays.equals(audio, audioOf(file)), "grow audio");
+
+        ((TextFrame) id3.getFrame("TPE1")).setTextData("\0Other Artist");
+        id3.pack();
+
+        packed = ID3Metadata.parseMedia(file);
+        check(textOf(packed, "TPE1").equals("Other Artist") && textOf(packed, "TIT2").equals(new String(title)),
+                "grow packed again");
+        check(Arrays.equals(IMAGE, imageOf(packed)), "grow packed again image");
+        check(Arrays.equals(audio, audioOf(file)), "grow packed again audio");
+    }
+
+
+    /**
+     * Frames removed from the tag are gone, frames following them move up.
+     */
+    private static void removeFrames() throws IOException {
+        File file = createMedia(100, "Song", "Artist", IMAGE);
+        byte[] audio = audioOf(file);
+
+        ID3Metadata id3 = ID3Metadata.parseMedia(file);
+        id3.removeFrames("TIT2");
+        id3.removeFrames("TPE1");
+        id3.pack();
+
+        ID3Metadata packed = ID3Metadata.parseMedia(file);
+        check(packed.getFrame("TIT2") == null && packed.getFrame("TPE1") == null, "removed frames");
+        check(textOf(packed, "TRCK").equals("3/12"), "remove keeps frames");
+        check(sameFrames(id3, packed), "remove frames in memory");
+        check(Arrays.equals(IMAGE, imageOf(packed)), "remove image");
+        check(Arrays.equals(audio, audioOf(file)), "remove audio");
+    }
+
+
+    /**
+     * An image frame which has let go of its data after its image has been 
+     * shared is rebuilt from the shared image when it is packed.
+     */
+    private static void releasedImage() throws IOException {
+        AlbumArtStore store = ImageFrame.getArtStore();
+        ImageFrame.setArtStore(new AlbumArtStore(false));
+
+        try {
+            File file = createMedia(10, "Song", "Artist", IMAGE);
+            byte[] audio = audioOf(file);
+
+            ID3Metadata id3 = ID3Metadata.parseMedia(file);
+            ((ImageFrame) id3.getFrame("APIC")).getArt();
+
+            // Moves the image frame out of the old tag
+            ((TextFrame) id3.getFrame("TIT2")).setTextData("\0Much longer song name than before");
+            id3.pack();
+
+            ID3Metadata packed = ID3Metadata.parseMedia(file);
+            check(Arrays.equals(IMAGE, imageOf(packed)), "released image");
+            check(textOf(packed, "TIT2").equals("Much longer song name than before"), "released image frames");
+            check(Arrays.equals(audio, audioOf(file)), "released image audio");
+        } finally {
+            ImageFrame.setArtStore(store);
+        }
+    }
+
+
+    /**
+     * An image streamed from a file into the tag is read back from the media
+     * file, also after the frame has been moved by another pack.
+     */
+    private static void streamedImage() throws IOException {
+        File file = createMedia(100, "Song", "Artist", IMAGE);
+        byte[] audio = audioOf(file);
+
+        byte[] image = Arrays.copyOf(IMAGE, 5000);
+        Arrays.fill(image, IMAGE.length, image.length, (byte) 7);
+        File imageFile = File.createTempFile("image", ".png");
+        imageFile.deleteOnExit();
+        Files.write(imageFile.toPath(), image);
+
+        ID3Metadata id3 = ID3Metadata.parseMedia(file);
+        ((ImageFrame) id3.getFrame("APIC")).setImageData(imageFile.toPath(), null);
+        id3.pack();
+
+        ID3Metadata packed = ID3Metadata.parseMedia(file);
+        check(Arrays.equals(image, imageOf(packed)), "streamed image");
+        check(Arrays.equals(image, imageOf(id3)), "streamed image in memory");
+        check(Arrays.equals(audio, audioOf(file)), "streamed image audio");
+
+        // Moves the stored image in place
+        ((TextFrame) id3.getFrame("TIT2")).setTextData("\0S");
+        id3.pack();
+
+        packed = ID3Metadata.parseMedia(file);
+        check(Arrays.equals(image, imageOf(packed)), "streamed image moved");
+        check(textOf(packed, "TIT2").equals("S"), "streamed image moved frames");
+        check(Arrays.equals(audio, audioOf(file)), "streamed image moved audio");
+    }
+
+
+    /**
+     * An image frame read from one tag and packed into another one is written
+     * with its image.
+     */
+    private static void imageMovedFromOtherTag() throws IOException {
+        File fileA = createMedia(10, "Song A", "Artist A", IMAGE);
+        File fileB = createMedia(10, "Song B", "Artist B", null);
+        byte[] audio = audioOf(fileB);
+
+        ID3Metadata a = ID3Metadata.parseMedia(fileA);
+        ID3Metadata b = ID3Metadata.parseMedia(fileB);
+        b.addFrame(a.getFrame("APIC"));
+        b.pack();
+
+        ID3Metadata packed = ID3Metadata.parseMedia(fileB);
+        check(Arrays.equals(IMAGE, imageOf(packed)), "moved image");
+        check(textOf(packed, "TIT2").equals("Song B"), "moved image frames");
+        check(Arrays.equals(audio, audioOf(fileB)), "moved image audio");
+        check(Arrays.equals(IMAGE, imageOf(ID3Metadata.parseMedia(fileA))), "moved image source kept");
+    }
+
+
+    /**
+     * A frame read from one file and packed into another file at the same
+     * position must be written, not assumed to be in place already.
+     */
+    private static void frameMovedFromOtherTag() throws IOException {
+        File fileA = createMedia(100, "Song A", "Artist A");
+        File fileB = createMedia(100, "Song B", "Artist B");
+        byte[] audio = audioOf(fileB);
+
+        ID3Metadata a = ID3Metadata.parseMedia(fileA);
+        ID3Metadata b = ID3Metadata.parseMedia(fileB);
+
+        // Same frame order, with the title of A in place of the title of B
+        Frame[] frames = b.getAllFrames();
+        for(Frame frame : frames)
+            b.removeFrame(frame);
+
+        b.addFrame(a.getFrame("TIT2"));
+        for(Frame frame : frames) {
+            if(!frame.getFrameID().equals("TIT2"))
+                b.addFrame(frame);
+        }
+
+        b.pack();
+
+        ID3Metadata packed = ID3Metadata.parseMedia(fileB);
+        check(textOf(packed, "TIT2").equals("Song A"), "moved frame is written");
+        check(textOf(packed, "TPE1").equals("Artist B"), "moved frame keeps other frames");
+        check(Arrays.equals(audio, audioOf(fileB)), "moved frame keeps audio");
+    }
+
+
+    /**
+     * Frames of an instance whose media file has been packed by another
+     * instance meanwhile must be written, not assumed to be in place.
+     */
+    private static void tagChangedByOtherInstance() throws IOException {
+        File file = createMedia(100, "Song", "Artist");
+        byte[] audio = audioOf(file);
+
+        ID3Metadata first  = ID3Metadata.parseMedia(file);
+        ID3Metadata second = ID3Metadata.parseMedia(file);
+        first.getAllFrames();
+        second.getAllFrames();
+
+        first.removeFrames("TIT2");
+        first.pack();
+
+        ((TextFrame) second.getFrame("TPE1")).setTextData("\0Other");
+        second.pack();
+
+        ID3Metadata packed = ID3Metadata.parseMedia(file);
+        check(packed.getFrame("TIT2") != null && textOf(packed, "TIT2").equals("Song"),
+                "stale instance writes its frames");
+        check(textOf(packed, "TPE1").equals("Other"), "stale instance writes its changes");
+        check(Arrays.equals(audio, audioOf(file)), "stale instance keeps audio");
+    }
+
+
+    /**
+     * Reading the raw data of a frame leaves it unmodified, so that it is not
+     * packed again.
+     */
+    private static void dataReadWithoutChange() throws IOException {
+        File file = createMedia(100, "Song", "Artist");
+
+        ID3Metadata id3 = ID3Metadata.parseMedia(file);
+        Frame frame = id3.getFrame("TIT2");
+        byte[] data = frame.getData();
+        data[1] = 'X';
+
+        check(!frame.isModified(), "reading data keeps frame unmodified");
+        check(textOf(id3, "TIT2").equals("Song"), "changing read data keeps frame");
+    }
+
+
+    /**
+     * Checks whether both tags have the same frames in the same order.
+     */
+    private static boolean sameFrames(ID3Metadata expected, ID3Metadata actual) throws IOException {
+        Frame[] expectedFrames  = expected.getAllFrames();
+        Frame[] actualFrames    = actual.getAllFrames();
+
+        if(expectedFrames.length != actualFrames.length)
+            return false;
+
+        for(int i = 0; i < expectedFrames.length; i++) {
+            if(!expectedFrames[i].getFrameID().equals(actualFrames[i].getFrameID())
+                    || !Arrays.equals(expectedFrames[i].getData(), actualFrames[i].getData()))
+                return false;
+        }
+
+        return true;
+    }
+
+
+    private static void check(boolean passed, String name) {
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+
+        if(!passed)
+            failures++;
+    }
+
+
+    /**
+     * Gets, the text of a text frame without the leading encoding byte.
+     */
+    private static String textOf(ID3Metadata id3, String frameID) throws IOException {
+        Frame frame = id3.getFrame(frameID);
+
+        if(frame == null)
+            return "";
+
+        return ((TextFrame) frame).getTextData().replace("\0", "");
+    }
+
+
+    /**
+     * Gets, the image of the album art frame.
+     */
+    private static byte[] imageOf(ID3Metadata id3) throws IOException {
+        Frame frame = id3.getFrame("APIC");
+
+        return (frame == null) ? null : ((ImageFrame) frame).getImageData();
+    }
+
+
+    /**
+     * Gets, the audio data following the ID3 tag of the media file.
+     */
+    private static byte[] audioOf(File file) throws IOException {
+        byte[] media = Files.readAllBytes(file.toPath());
+        ID3Metadata id3 = ID3Metadata.parseMedia(file);
+        int tagSize = (id3 == null) ? 0 : 10 + id3.getSize();
+
+        return Arrays.copyOfRange(media, tagSize, media.length);
+    }
+
+
+    /**
+     * Creates a temporary media file with an ID3v2.3 tag holding a title, an
+     * artist and a track number, followed by the given padding and 1000
+     * bytes of audio data.
+     */
+    static File createMedia(int padding, String title, String artist) throws IOException {
+        return createMedia(padding, title, artist, null);
+    }
+
+
+    /**
+     * Creates a temporary media file with an ID3v2.3 tag holding a title, an
+     * album art unless the image is null, an artist and a track number, 
+     * followed by the given padding and 1000 bytes of audio data.
+     */
+    static File createMedia(int padding, String title, String artist, byte[] image) throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        writeFrame(frames, "TIT2", text(title));
+
+        if(image != null) {
+            ByteArrayOutputStream apic = new ByteArrayOutputStream();
+            apic.write(0);
+            apic.write("image/png".getBytes(StandardCharsets.ISO_8859_1));
+            apic.write(new byte[] { 0, 3, 0 });
+            apic.write(image);
+            writeFrame(frames, "APIC", apic.toByteArray());
+        }
+
+        writeFrame(frames, "TPE1", text(artist));
+        writeFrame(frames, "TRCK", text("3/12"));
+        frames.write(new byte[padding]);
+
+        return createMedia(frames.toByteArray());
+    }
+
+
+    /**
+     * Creates a temporary media file with the given frames and padding as tag,
+     * followed by 1000 bytes of audio data.
+     */
+    static File createMedia(byte[] tag) throws IOException {
+        ByteArrayOutputStream media = new ByteArrayOutputStream();
+        media.write("ID3".getBytes(StandardCharsets.ISO_8859_1));
+        media.write(new byte[] { 3, 0, 0 });
+
+        // Synchsafe size of the tag
+        for(int shift = 21; shift >= 0; shift -= 7)
+            media.write((tag.length >>> shift) & 0x7f);
+
+        media.write(tag);
+
+        for(int i = 0; i < 1000; i++)
+            media.write(i * 31);
+
+        File file = File.createTempFile("pack", ".mp3");
+        file.deleteOnExit();
+        Files.write(file.toPath(), media.toByteArray());
+
+        return file;
+    }
+
+
+    static void writeFrame(ByteArrayOutputStream out, String frameID, byte[] data) throws IOException {
+        out.write(frameID.getBytes(StandardCharsets.ISO_8859_1));
+
+        for(int shift = 24; shift >= 0; shift -= 8)
+            out.write((data.length >>> shift) & 0xff);
+
+        out.write(new byte[2]);
+        out.write(data);
+    }
+
+
+    static byte[] text(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] data  = new byte[bytes.length + 1];
+        System.arraycopy(bytes, 0, data, 1, bytes.length);
+
+        return data;
+    }
+}